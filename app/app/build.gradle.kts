@@ -18,17 +18,27 @@ android {
 
     buildTypes {
         release {
-            isMinifyEnabled = false
+            // 模型类使用手写的JSON编解码器（ModelTypeAdapters），不依赖反射，可以开启R8混淆和资源压缩
+            isMinifyEnabled = true
+            isShrinkResources = true
             proguardFiles(
                 getDefaultProguardFile("proguard-android-optimize.txt"),
                 "proguard-rules.pro"
             )
         }
     }
+    buildFeatures {
+        // HTTP日志只在DEBUG构建中启用
+        buildConfig = true
+    }
     compileOptions {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        // 本地单元测试中android.util.Log等方法返回默认值
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -42,11 +52,11 @@ dependencies {
     implementation("com.squareup.retrofit2:retrofit:2.9.0")
     implementation("com.squareup.retrofit2:converter-gson:2.9.0")
     implementation("com.squareup.okhttp3:okhttp:4.11.0")
-    implementation("com.squareup.okhttp3:logging-interceptor:4.11.0")
 
     // 不需要额外的依赖，使用WebView渲染LaTeX
 
     testImplementation("junit:junit:4.13.2")
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.11.0")
     androidTestImplementation("androidx.test.ext:junit:1.1.5")
     androidTestImplementation("androidx.test.espresso:espresso-core:3.5.1")
 }
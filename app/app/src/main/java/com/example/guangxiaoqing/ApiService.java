@@ -1,66 +0,0 @@
-package com.example.guangxiaoqing;
-
-import retrofit2.Call;
-import retrofit2.http.Body;
-import retrofit2.http.POST;
-
-public interface ApiService {
-    @POST("sms/send")
-    Call<ApiResponse<String>> sendVerificationCode(@Body SendSmsRequest request);
-}
-
-class SendSmsRequest {
-    private String phone;
-    private String type;
-
-    public SendSmsRequest(String phone, String type) {
-        this.phone = phone;
-        this.type = type;
-    }
-
-    public String getPhone() {
-        return phone;
-    }
-
-    public void setPhone(String phone) {
-        this.phone = phone;
-    }
-
-    public String getType() {
-        return type;
-    }
-
-    public void setType(String type) {
-        this.type = type;
-    }
-}
-
-class ApiResponse<T> {
-    private String message;
-    private T data;
-    private String code;
-
-    public String getMessage() {
-        return message;
-    }
-
-    public void setMessage(String message) {
-        this.message = message;
-    }
-
-    public T getData() {
-        return data;
-    }
-
-    public void setData(T data) {
-        this.data = data;
-    }
-
-    public String getCode() {
-        return code;
-    }
-
-    public void setCode(String code) {
-        this.code = code;
-    }
-}
\ No newline at end of file
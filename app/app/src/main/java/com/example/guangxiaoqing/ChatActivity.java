@@ -2,6 +2,10 @@ package com.example.guangxiaoqing;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.Menu;
 import android.view.View;
@@ -9,11 +13,19 @@ import android.view.WindowManager;
 import android.widget.PopupMenu;
 import android.widget.EditText;
 import android.widget.ImageButton;
+import com.example.guangxiaoqing.utils.ConnectivityWatcher;
+import com.example.guangxiaoqing.utils.NetworkConditions;
 import com.example.guangxiaoqing.utils.ToastHelper;
 
-import com.example.guangxiaoqing.api.NetworkService;
+import com.example.guangxiaoqing.api.ChatConversation;
+import com.example.guangxiaoqing.api.ChatOutbox;
+import com.example.guangxiaoqing.api.ChatStreamCallback;
+import com.example.guangxiaoqing.api.ChatStreamHandle;
 import com.example.guangxiaoqing.api.NetworkCallback;
+import com.example.guangxiaoqing.api.NetworkService;
 import com.example.guangxiaoqing.model.ChatMessage;
+import com.example.guangxiaoqing.model.ChatSource;
+import com.example.guangxiaoqing.model.ChatUsage;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
@@ -25,13 +37,17 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 // 添加所有需要的导入语句到这里
+import java.io.File;
+import java.time.Instant;
 import java.time.LocalTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
-import java.util.concurrent.Executor;
 
 // 注意：使用java.time API需要在build.gradle中启用核心库反糖（coreLibraryDesugaring）
 // 如果项目的minSdkVersion < 26
@@ -53,12 +69,22 @@ public class ChatActivity extends AppCompatActivity {
     private List<Message> messageList;
     private List<ChatMessage> chatHistory;
     private MessageAdapter messageAdapter;
-    // 使用主线程执行器替代Handler
-    private Executor mainExecutor;
     private UserSession userSession;
     private LinearLayoutManager layoutManager;
     private DateTimeFormatter timeFormatter;
     private NetworkService networkService;
+    // 正在生成的回答，用于在离开页面、清空记录或发送新问题时取消
+    private ChatStreamHandle currentGeneration;
+    // 服务器端的会话状态，支持会话时每轮只上传新问题
+    private final ChatConversation conversation = new ChatConversation();
+    // 下一次输入时是否预热连接，每次回到页面或发送后只在第一次按键时触发
+    private boolean prewarmOnTyping = true;
+    // 没有网络时保存的问题，网络恢复后按顺序发送
+    private ChatOutbox outbox;
+    private ConnectivityWatcher connectivityWatcher;
+    // 等待发送的问题在列表中对应的消息，按队列条目ID
+    private final Map<String, Message> pendingMessages = new HashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
     private static final int MAX_HISTORY_SIZE = 10; // 保留最近的10条消息作为上下文
 
     @Override
@@ -99,9 +125,6 @@ public class ChatActivity extends AppCompatActivity {
         // 初始化网络服务
         networkService = new NetworkService(this);
 
-        // 使用主线程执行器替代Handler
-        mainExecutor = ContextCompat.getMainExecutor(this);
-
         // 初始化聊天历史记录列表
         chatHistory = new ArrayList<>();
 
@@ -111,6 +134,35 @@ public class ChatActivity extends AppCompatActivity {
 
         // 添加欢迎消息
         addWelcomeMessage();
+
+        // 恢复上次没有发出的问题，网络可用时自动发送
+        setupOutbox();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // 打开聊天页面时预热连接，第一个问题不需要等待握手
+        prewarmOnTyping = true;
+        networkService.prewarmConnection("进入聊天页面");
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (messageAdapter != null) {
+            messageAdapter.onTrimMemory(level);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        // 离开页面时停止正在生成的回答，释放连接
+        cancelCurrentGeneration();
+        // 待发送的问题保留在文件中，下次进入页面时继续发送
+        connectivityWatcher.stop();
+        outbox.close();
+        super.onDestroy();
     }
 
     private void setupKeyboardBehavior() {
@@ -171,10 +223,30 @@ public class ChatActivity extends AppCompatActivity {
             if (!text.isEmpty()) {
                 sendMessage(text);
                 etMessage.setText("");
+                prewarmOnTyping = true;
             }
         });
 
         btnMenu.setOnClickListener(v -> showPopupMenu());
+
+        // 开始输入时再预热一次，页面停留较久后连接可能已被服务器关闭
+        etMessage.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                if (prewarmOnTyping && s.length() > 0) {
+                    prewarmOnTyping = false;
+                    networkService.prewarmConnection("开始输入");
+                }
+            }
+        });
     }
 
     private void showPopupMenu() {
@@ -213,10 +285,16 @@ public class ChatActivity extends AppCompatActivity {
     }
 
     private void clearChatHistory() {
+        // 先停止正在生成的回答
+        cancelCurrentGeneration();
+
         // 清空聊天记录
         int oldSize = messageList.size();
         messageList.clear();
         chatHistory.clear();
+        conversation.reset();
+        outbox.clear();
+        pendingMessages.clear();
         // 使用更精确的方法替代notifyDataSetChanged
         messageAdapter.notifyItemRangeRemoved(0, oldSize);
 
@@ -227,6 +305,12 @@ public class ChatActivity extends AppCompatActivity {
     }
 
     private void logout() {
+        // 停止正在生成的回答
+        cancelCurrentGeneration();
+
+        // 待发送的问题保存在当前用户的文件中，下次登录同一账号时继续发送
+        outbox.close();
+
         // 清除登录状态
         userSession.clearLoginSession();
 
@@ -245,11 +329,181 @@ public class ChatActivity extends AppCompatActivity {
         messageAdapter.notifyItemInserted(messageList.size() - 1);
         scrollToBottom();
 
+        // 没有网络，或者还有更早的问题在等待发送时加入待发送队列，保持提问顺序
+        if (!outbox.isEmpty() || !NetworkConditions.isConnected(this)) {
+            queueQuestion(userMessage, text);
+            return;
+        }
+
         // 调用后端API获取回复
-        sendChatRequest(text);
+        sendChatRequest(text, new NetworkCallback<Void>() {
+            @Override
+            public void onSuccess(Void response) {
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                // 发送过程中网络断开，问题转入待发送队列
+                queueQuestion(userMessage, text);
+            }
+        });
+    }
+
+    private void setupOutbox() {
+        // 在后台读取当前用户的队列文件，不阻塞页面创建
+        File file = new File(getFilesDir(), ChatOutbox.fileName(userSession.getUserPhone()));
+        outbox = new ChatOutbox(file, handler::postDelayed, this::showRestoredQuestions);
+        // 注册时已有网络会立即通知一次，恢复的问题在恢复完成后随即发送
+        connectivityWatcher = new ConnectivityWatcher(this);
+        connectivityWatcher.start(() -> outbox.onNetworkAvailable(this::sendQueuedQuestion));
+    }
+
+    /**
+     * 显示从文件恢复的问题，插在恢复期间提出的问题之前
+     */
+    private void showRestoredQuestions(List<ChatOutbox.Entry> restored) {
+        if (restored.isEmpty()) {
+            return;
+        }
+        int position = messageList.size();
+        while (position > 0 && messageList.get(position - 1).isPending()) {
+            position--;
+        }
+        for (ChatOutbox.Entry entry : restored) {
+            String time = Instant.ofEpochMilli(entry.getCreatedAt()).atZone(ZoneId.systemDefault())
+                    .toLocalTime().format(timeFormatter);
+            Message message = new Message(entry.getContent(), time, true);
+            message.setPending(true);
+            pendingMessages.put(entry.getId(), message);
+            messageList.add(position++, message);
+        }
+        messageAdapter.notifyItemRangeInserted(position - restored.size(), restored.size());
+    }
+
+    /**
+     * 问题加入待发送队列，消息显示为等待网络
+     */
+    private void queueQuestion(Message userMessage, String text) {
+        ChatOutbox.Entry entry = outbox.enqueue(text);
+        markPending(entry.getId(), userMessage, true);
+        if (NetworkConditions.isConnected(this)) {
+            // 有网络但前面还有问题在等待，尝试继续发送
+            outbox.flush(this::sendQueuedQuestion);
+        } else {
+            ToastHelper.showInfo(this, "网络不可用，恢复后自动发送");
+        }
+    }
+
+    /**
+     * 发送待发送队列中的问题，由ChatOutbox按顺序调用
+     */
+    private void sendQueuedQuestion(ChatOutbox.Entry entry, NetworkCallback<Void> result) {
+        Message message = pendingMessages.get(entry.getId());
+        markPending(entry.getId(), message, false);
+        sendChatRequest(entry.getContent(), new NetworkCallback<Void>() {
+            @Override
+            public void onSuccess(Void response) {
+                pendingMessages.remove(entry.getId());
+                result.onSuccess(null);
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                // 仍然没有网络，继续等待
+                markPending(entry.getId(), message, true);
+                result.onError(errorMessage);
+            }
+        });
+    }
+
+    private void markPending(String entryId, Message message, boolean pending) {
+        if (message == null) {
+            return;
+        }
+        message.setPending(pending);
+        if (pending) {
+            pendingMessages.put(entryId, message);
+        }
+        int position = messageList.indexOf(message);
+        if (position != -1) {
+            messageAdapter.notifyItemChanged(position);
+        }
     }
 
-    private void sendChatRequest(String userMessage) {
+    private void cancelCurrentGeneration() {
+        if (currentGeneration != null) {
+            currentGeneration.cancel();
+            currentGeneration = null;
+        }
+    }
+
+    // 移除本次请求的"正在输入..."提示消息（如果还在）
+    // 按实例移除：上一个回答的回调可能在新请求的提示加入之后才执行，不能按文本删除最后一行
+    private void removeTypingMessage(Message typingMessage) {
+        int position = messageList.indexOf(typingMessage);
+        if (position != -1) {
+            messageList.remove(position);
+            messageAdapter.notifyItemRemoved(position);
+        }
+    }
+
+    /**
+     * 把一轮完整的问答加入聊天历史
+     */
+    private void addExchangeToHistory(String userMessage, String assistantResponse) {
+        if (assistantResponse.isEmpty()) {
+            return;
+        }
+
+        // 检查是否已存在相同的用户消息
+        boolean userMessageExists = false;
+        for (ChatMessage msg : chatHistory) {
+            if (msg.getRole().equals("user") && msg.getContent().equals(userMessage)) {
+                userMessageExists = true;
+                break;
+            }
+        }
+        if (!userMessageExists) {
+            chatHistory.add(new ChatMessage("user", userMessage));
+        }
+        chatHistory.add(new ChatMessage("assistant", assistantResponse));
+        Log.d("ChatActivity", "Added assistant message to history: " + assistantResponse);
+
+        // 限制历史记录大小
+        while (chatHistory.size() > MAX_HISTORY_SIZE * 2) { // 乘以2是因为每次对话有用户和助手两条消息
+            chatHistory.remove(0);
+        }
+    }
+
+    /**
+     * 把参考来源格式化为显示在回答末尾的列表
+     */
+    private String formatSources(List<ChatSource> sources) {
+        if (sources == null || sources.isEmpty()) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder("\n\n**参考来源**");
+        for (ChatSource source : sources) {
+            String title = source.getTitle() != null ? source.getTitle() : source.getUrl();
+            if (title != null) {
+                builder.append("\n- ").append(title);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 发送问题并显示回答
+     * @param userMessage 问题
+     * @param delivery 回答完整接收或服务器返回错误后调用onSuccess；因为没有网络而失败时调用onError，
+     *                 由调用方把问题放入待发送队列，此时不显示错误
+     */
+    private void sendChatRequest(String userMessage, NetworkCallback<Void> delivery) {
+        // 上一个还在生成的回答在发出新请求之后再取消：重复提交同一个问题时新请求会共享正在生成的回答，
+        // 先取消的话底层请求已经没有调用方，会被取消后重新发送
+        ChatStreamHandle previousGeneration = currentGeneration;
+        currentGeneration = null;
+
         // 显示正在输入状态（可以添加一个正在输入的提示）
         String currentTime = LocalTime.now().format(timeFormatter);
         Message typingMessage = new Message("正在输入...", currentTime, false);
@@ -277,187 +531,169 @@ public class ChatActivity extends AppCompatActivity {
         */
 
         // 调用后端API获取回复，同时发送处理过的历史消息
-        networkService.chatWithHistory(userMessage, cleanHistory, new NetworkCallback<String>() {
+        // 所有回调都已在主线程按事件顺序交付，直接更新界面，不再转发到主线程执行器，否则合并的回答文本可能插到两次转发之间
+        currentGeneration = networkService.chatWithHistory(userMessage, cleanHistory, conversation, new ChatStreamCallback() {
             private Message assistantMessage = null;
-            private boolean isThinking = false; // 用于标记是否在<think>标签内
-            private StringBuilder currentResponse = new StringBuilder();
-            private boolean isFirstChar = true; // 用于标记是否是第一个字符
-            private boolean shouldUpdateUI = false; // 用于控制UI更新频率
-            // 将这两个变量声明为类成员变量，而不是方法内的局部变量
-            private boolean hasAddedUserMessage = false;
-            private boolean hasAddedAssistantMessage = false;
+            private final StringBuilder currentResponse = new StringBuilder();
+            // 参考来源只显示在回答末尾，不加入聊天历史
+            private String sourcesText = "";
+            // 本次回答的关联ID，出错时记录，便于和服务器日志对照
+            private String requestId = "-";
+
+            @Override
+            public void onStart(String requestId) {
+                this.requestId = requestId;
+            }
 
             @Override
             public void onSuccess(String response) {
-                mainExecutor.execute(() -> {
-                    try {
-                        // 删除这里的变量声明，因为已经在外部声明了
-                        // boolean hasAddedUserMessage = false;
-                        // boolean hasAddedAssistantMessage = false;
-
-                        // 检查是否是think标签的开始
-                        if (response.equals("<")) {
-                            isThinking = true;
-                            return;
-                        } else if (response.equals(">") && isThinking) {
-                            isThinking = false;
-                            // 不再在think标签结束后添加换行符
-                            return;
-                        } else if (isThinking) {
-                            // 在think标签内的内容不显示
-                            return;
+                // 思考过程由onThinking单独回调，这里收到的都是需要显示的回答
+                // 回答文本已按显示帧合并，并在主线程的帧回调中交付，直接更新界面，使布局在同一帧内完成
+                try {
+                    String text = response;
+                    if (currentResponse.length() == 0) {
+                        // 忽略回答开头的换行符
+                        int start = 0;
+                        while (start < text.length() && text.charAt(start) == '\n') {
+                            start++;
                         }
+                        text = text.substring(start);
+                    }
+                    if (text.isEmpty()) {
+                        return;
+                    }
 
-                        // 如果还有"正在输入..."消息，移除它
-                        if (!messageList.isEmpty() && messageList.get(messageList.size() - 1).getText().equals("正在输入...")) {
-                            messageList.remove(messageList.size() - 1);
-                            messageAdapter.notifyItemRemoved(messageList.size());
-                        }
+                    // 如果还有"正在输入..."消息，移除它
+                    removeTypingMessage(typingMessage);
 
-                        // 处理换行符
-                        if (response.equals("\n")) {
-                            if (isFirstChar || currentResponse.length() == 0) {
-                                // 忽略开头的换行符
-                                return;
-                            }
-                            // 只在非空行后添加换行符，并且避免连续的换行符
-                            if (!currentResponse.toString().endsWith("\n")) {
-                                currentResponse.append(response);
-                                shouldUpdateUI = true;
-                            }
-                            return;
-                        }
+                    currentResponse.append(text);
+                    showAssistantMessage(text);
+                } catch (Exception e) {
+                    Log.e("ChatActivity", "Error updating chat UI", e);
+                }
+            }
 
-                        // 追加新字符
-                        currentResponse.append(response);
-                        isFirstChar = false;
-                        shouldUpdateUI = true;
-
-                        // 只在需要时更新UI
-                        if (shouldUpdateUI) {
-                            String currentTime = LocalTime.now().format(timeFormatter);
-
-                            if (assistantMessage == null) {
-                                // 创建新消息
-                                assistantMessage = new Message(currentResponse.toString(), currentTime, false);
-                                messageList.add(assistantMessage);
-                                messageAdapter.notifyItemInserted(messageList.size() - 1);
-                            } else {
-                                // 更新现有消息
-                                assistantMessage.setText(currentResponse.toString());
-                                int position = messageList.indexOf(assistantMessage);
-                                if (position != -1) {
-                                    messageAdapter.notifyItemChanged(position);
-                                }
-                            }
-
-                            // 确保每次更新后都能看到最新内容
-                            scrollToBottom();
-
-                            shouldUpdateUI = false;
-                        }
+            @Override
+            public void onSources(List<ChatSource> sources) {
+                sourcesText = formatSources(sources);
+                if (assistantMessage != null) {
+                    showAssistantMessage(null);
+                }
+            }
 
-                        // 只有在收到完整句子的结尾标记时，才添加到聊天历史
-                        if (response.equals("。") || response.equals("？") || response.equals("！") || response.equals(".") || response.equals("?") || response.equals("!")) {
-                            // 确保用户消息只添加一次
-                            if (!hasAddedUserMessage) {
-                                // 检查是否已存在相同的用户消息
-                                boolean userMessageExists = false;
-                                for (ChatMessage msg : chatHistory) {
-                                    if (msg.getRole().equals("user") && msg.getContent().equals(userMessage)) {
-                                        userMessageExists = true;
-                                        break;
-                                    }
-                                }
-
-                                if (!userMessageExists) {
-                                    chatHistory.add(new ChatMessage("user", userMessage));
-                                }
-                                hasAddedUserMessage = true;
-                            }
-
-                            // 更新助手消息（如果已存在则替换，否则添加）
-                            if (currentResponse.length() > 0) {
-                                String finalResponse = currentResponse.toString().trim();
-
-                                // 检查是否包含思考过程（通常以"好的，"或类似开头）
-                                if (finalResponse.startsWith("好的，") || finalResponse.contains("我需要") || finalResponse.contains("我应该")) {
-                                    // 尝试提取最终回复部分（通常在最后一个换行符之后）
-                                    int lastNewlineIndex = finalResponse.lastIndexOf("\n\n");
-                                    if (lastNewlineIndex > 0 && lastNewlineIndex < finalResponse.length() - 3) {
-                                        finalResponse = finalResponse.substring(lastNewlineIndex + 2);
-                                    }
-                                }
-
-                                // 检查是否已存在相同的助手消息
-                                boolean assistantMessageExists = false;
-                                for (ChatMessage msg : chatHistory) {
-                                    if (msg.getRole().equals("assistant") && msg.getContent().equals(finalResponse)) {
-                                        assistantMessageExists = true;
-                                        break;
-                                    }
-                                }
-
-                                // 只有当消息不存在时才添加或更新
-                                if (!assistantMessageExists) {
-                                    // 如果已经添加过助手消息，则更新最后一条
-                                    if (hasAddedAssistantMessage && !chatHistory.isEmpty()) {
-                                        for (int i = chatHistory.size() - 1; i >= 0; i--) {
-                                            ChatMessage msg = chatHistory.get(i);
-                                            if (msg.getRole().equals("assistant")) {
-                                                chatHistory.set(i, new ChatMessage("assistant", finalResponse));
-                                                break;
-                                            }
-                                        }
-                                    } else {
-                                        // 否则添加新的助手消息
-                                        chatHistory.add(new ChatMessage("assistant", finalResponse));
-                                        hasAddedAssistantMessage = true;
-
-                                        // 添加日志，确认助手消息已添加到历史记录
-                                        Log.d("ChatActivity", "Added assistant message to history: " + finalResponse);
-                                    }
-                                }
-
-                                // 限制历史记录大小
-                                while (chatHistory.size() > MAX_HISTORY_SIZE * 2) { // 乘以2是因为每次对话有用户和助手两条消息
-                                    chatHistory.remove(0);
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-                        Log.e("ChatActivity", "Error updating chat UI", e);
+            @Override
+            public void onDone(ChatUsage usage) {
+                if (usage != null) {
+                    Log.d("ChatActivity", "[" + requestId + "] 回答结束，token用量: prompt=" + usage.getPromptTokens()
+                            + ", completion=" + usage.getCompletionTokens());
+                }
+            }
+
+            @Override
+            public void onComplete() {
+                removeTypingMessage(typingMessage);
+                finishAssistantMessage();
+                currentGeneration = null;
+                // 回答完整接收后再加入聊天历史
+                addExchangeToHistory(userMessage, currentResponse.toString().trim());
+                delivery.onSuccess(null);
+            }
+
+            /**
+             * 创建或更新助手消息
+             * @param appended 新收到的回答文本，为null表示来源等其他内容有变化
+             */
+            private void showAssistantMessage(String appended) {
+                if (assistantMessage == null) {
+                    String currentTime = LocalTime.now().format(timeFormatter);
+                    assistantMessage = new Message(currentResponse + sourcesText, currentTime, false);
+                    assistantMessage.setStreaming(true);
+                    messageList.add(assistantMessage);
+                    messageAdapter.notifyItemInserted(messageList.size() - 1);
+                } else {
+                    if (appended != null && sourcesText.isEmpty()) {
+                        // 回答只在末尾增加，渲染时已显示的部分不需要重新比较
+                        assistantMessage.appendText(appended);
+                    } else {
+                        assistantMessage.setText(currentResponse + sourcesText);
+                    }
+                    int position = messageList.indexOf(assistantMessage);
+                    if (position != -1) {
+                        messageAdapter.notifyItemChanged(position);
                     }
-                });
+                }
+
+                // 确保每次更新后都能看到最新内容
+                scrollToBottom();
+            }
+
+            /**
+             * 回答不再变化，之后可以在后台预先排版
+             */
+            private void finishAssistantMessage() {
+                if (assistantMessage != null) {
+                    assistantMessage.setStreaming(false);
+                }
             }
 
             @Override
-            public void onError(String errorMessage) {
-                // 使用主线程执行器替代Handler
-                mainExecutor.execute(() -> {
-                    try {
-                        // 移除"正在输入..."消息
-                        if (!messageList.isEmpty() && messageList.get(messageList.size() - 1).getText().equals("正在输入...")) {
-                            messageList.remove(messageList.size() - 1);
-                            messageAdapter.notifyItemRemoved(messageList.size());
-                        }
+            public void onCancelled() {
+                // 回答被取消：保留已显示的部分内容，只移除"正在输入..."提示
+                removeTypingMessage(typingMessage);
+                finishAssistantMessage();
+            }
 
-                        ToastHelper.showError(ChatActivity.this, errorMessage);
-                        // 添加错误消息到聊天记录
-                        String currentTime = LocalTime.now().format(timeFormatter);
-                        Message errorMsg = new Message("抱歉，我遇到了一些问题，请稍后再试。", currentTime, false);
-                        messageList.add(errorMsg);
-                        messageAdapter.notifyItemInserted(messageList.size() - 1);
-                        scrollToBottom();
-
-                        // 添加到聊天历史
-                        chatHistory.add(new ChatMessage("assistant", errorMsg.getText()));
-                    } catch (Exception e) {
-                        Log.e("ChatActivity", "Error handling chat error", e);
+            @Override
+            public void onRestart() {
+                // 服务器无法续传，回答会从头重新发送：清空已显示的部分，避免内容重复
+                // 与回答文本一样在主线程直接处理，重新发送的第一段文本一定在清空之后显示
+                currentResponse.setLength(0);
+                sourcesText = "";
+                if (assistantMessage != null) {
+                    assistantMessage.setText("");
+                    int position = messageList.indexOf(assistantMessage);
+                    if (position != -1) {
+                        messageAdapter.notifyItemChanged(position);
                     }
-                });
+                }
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                Log.e("ChatActivity", "[" + requestId + "] 回答失败: " + errorMessage);
+                try {
+                    currentGeneration = null;
+
+                    // 移除"正在输入..."消息
+                    removeTypingMessage(typingMessage);
+                    finishAssistantMessage();
+
+                    if (!NetworkConditions.isConnected(ChatActivity.this)) {
+                        // 没有网络导致的失败：问题等待网络恢复后重发，不显示错误
+                        delivery.onError(errorMessage);
+                        return;
+                    }
+
+                    ToastHelper.showError(ChatActivity.this, errorMessage);
+                    // 添加错误消息到聊天记录
+                    String currentTime = LocalTime.now().format(timeFormatter);
+                    Message errorMsg = new Message("抱歉，我遇到了一些问题，请稍后再试。", currentTime, false);
+                    messageList.add(errorMsg);
+                    messageAdapter.notifyItemInserted(messageList.size() - 1);
+                    scrollToBottom();
+
+                    // 添加到聊天历史
+                    chatHistory.add(new ChatMessage("assistant", errorMsg.getText()));
+                    // 服务器返回的错误重发也不会成功，不再重发
+                    delivery.onSuccess(null);
+                } catch (Exception e) {
+                    Log.e("ChatActivity", "Error handling chat error", e);
+                }
             }
         });
+        if (previousGeneration != null) {
+            previousGeneration.cancel();
+        }
     }
 
     // 新增方法：清理聊天历史，去除重复项
@@ -484,10 +720,8 @@ public class ChatActivity extends AppCompatActivity {
     private void scrollToBottom() {
         if (messageList.size() > 0) {
             // 直接滚动到底部，不使用post延迟
+            // scrollToPosition本身会请求布局，和列表更新在同一帧内完成，不需要再强制requestLayout
             recyclerChat.scrollToPosition(messageList.size() - 1);
-
-            // 强制立即重新布局，确保滚动生效
-            recyclerChat.requestLayout();
         }
     }
 }
@@ -1,9 +1,24 @@
 package com.example.guangxiaoqing;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class Message {
+    private static final AtomicLong nextId = new AtomicLong();
+
+    // 消息ID和内容版本，用作渲染缓存的键
+    private final long id = nextId.incrementAndGet();
+    private int version;
     private String text;
     private String timestamp;
     private boolean isSent;
+    // 没有网络时等待发送
+    private boolean pending;
+    // 流式更新时只重新分段和格式化末尾未稳定的部分，接收结束后释放
+    private StreamingMessageRenderer renderer;
+    // 回答还在流式接收中，文本随时变化，不缓存渲染结果
+    private boolean streaming;
+    // 上一次流式渲染之后文本只在末尾追加时为那次渲染的文本长度，渲染时这部分不需要重新比较；文本被改写后为0
+    private int renderedLength;
 
     public Message(String text, String timestamp, boolean isSent) {
         this.text = text;
@@ -17,6 +32,52 @@ public class Message {
 
     public void setText(String text) {
         this.text = text;
+        version++;
+        renderedLength = 0;
+    }
+
+    /**
+     * 在文本末尾追加，流式接收回答时使用，之前已渲染的部分不需要重新比较
+     */
+    public void appendText(String delta) {
+        text = text + delta;
+        version++;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * 内容版本，每次修改文本后递增
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * 渲染流式接收中的回答，已经稳定的分段在多次调用之间保留，不再重新解析
+     * 末尾的文本段在下一次调用时会被修改，调用方不应保留结果
+     */
+    MessageRenderCache.Entry renderStreaming() {
+        if (renderer == null) {
+            renderer = new StreamingMessageRenderer();
+        }
+        MessageRenderCache.Entry entry = renderer.render(text, renderedLength, version);
+        renderedLength = text.length();
+        return entry;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+        if (!streaming) {
+            // 完成的消息由渲染缓存保存结果，不再保留增量渲染的状态
+            renderer = null;
+        }
     }
 
     public String getTimestamp() {
@@ -26,4 +87,12 @@ public class Message {
     public boolean isSent() {
         return isSent;
     }
+
+    public boolean isPending() {
+        return pending;
+    }
+
+    public void setPending(boolean pending) {
+        this.pending = pending;
+    }
 } 
\ No newline at end of file
@@ -1,18 +1,17 @@
 package com.example.guangxiaoqing;
 
-import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.example.guangxiaoqing.utils.MarkdownHelper;
-import com.example.guangxiaoqing.utils.MathExpressionView;
-
+import java.util.Collections;
 import java.util.List;
 
 public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
@@ -21,9 +20,19 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
     private static final int VIEW_TYPE_MESSAGE_RECEIVED = 2;
 
     private List<Message> messageList;
+    // 已完成消息的格式化和分段结果
+    private final MessageRenderCache renderCache = new MessageRenderCache();
+    // 在后台格式化和测量消息文本
+    private final MessageTextPrecomputer textPrecomputer = new MessageTextPrecomputer(renderCache);
+    // 所有消息的分段列表共用的视图池，数学表达式的WebView创建后在消息之间复用
+    private final RecyclerView.RecycledViewPool segmentPool = new RecyclerView.RecycledViewPool();
 
     public MessageAdapter(List<Message> messageList) {
         this.messageList = messageList;
+        segmentPool.setMaxRecycledViews(MessageSegmentAdapter.VIEW_TYPE_TEXT, 20);
+        segmentPool.setMaxRecycledViews(MessageSegmentAdapter.VIEW_TYPE_INLINE_MATH, 10);
+        segmentPool.setMaxRecycledViews(MessageSegmentAdapter.VIEW_TYPE_DISPLAY_MATH, 6);
+        segmentPool.setMaxRecycledViews(MessageSegmentAdapter.VIEW_TYPE_CODE, 6);
     }
 
     @Override
@@ -45,26 +54,53 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
         if (viewType == VIEW_TYPE_MESSAGE_SENT) {
             view = LayoutInflater.from(parent.getContext())
                     .inflate(R.layout.item_message_sent, parent, false);
-            return new SentMessageHolder(view);
+            return new SentMessageHolder(view, segmentPool);
         } else {
             view = LayoutInflater.from(parent.getContext())
                     .inflate(R.layout.item_message_received, parent, false);
-            return new ReceivedMessageHolder(view);
+            return new ReceivedMessageHolder(view, segmentPool);
         }
     }
 
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
         Message message = messageList.get(position);
+        MessageRenderCache.Entry rendered = render(message);
 
         switch (holder.getItemViewType()) {
             case VIEW_TYPE_MESSAGE_SENT:
-                ((SentMessageHolder) holder).bind(message);
+                ((SentMessageHolder) holder).bind(message, rendered, textPrecomputer);
                 break;
             case VIEW_TYPE_MESSAGE_RECEIVED:
-                ((ReceivedMessageHolder) holder).bind(message);
+                ((ReceivedMessageHolder) holder).bind(message, rendered, textPrecomputer);
                 break;
         }
+        textPrecomputer.prefetch(messageList, position);
+    }
+
+    /**
+     * 获取消息的渲染结果，已完成的消息只解析一次
+     */
+    private MessageRenderCache.Entry render(Message message) {
+        MessageRenderCache.Entry rendered = renderCache.get(message);
+        if (rendered != null) {
+            return rendered;
+        }
+        if (message.isStreaming()) {
+            // 流式接收中的回答不缓存；使用消息的增量渲染状态，每次更新只重新分段和格式化末尾未稳定的部分
+            return message.renderStreaming();
+        }
+        rendered = MessageRenderCache.render(message.getText(), message.getVersion(), null);
+        renderCache.put(message, rendered);
+        return rendered;
+    }
+
+    /**
+     * 系统内存不足时释放渲染缓存
+     * @param level ComponentCallbacks2中的内存级别
+     */
+    public void onTrimMemory(int level) {
+        renderCache.onTrimMemory(level);
     }
 
     @Override
@@ -72,157 +108,74 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
         return messageList.size();
     }
 
-    private static class SentMessageHolder extends RecyclerView.ViewHolder {
+    private abstract static class MessageHolder extends RecyclerView.ViewHolder {
         TextView messageText, timeText;
-        LinearLayout messageContainer;
-        Context context;
+        RecyclerView segmentList;
+        final MessageSegmentAdapter segmentAdapter = new MessageSegmentAdapter();
 
-        SentMessageHolder(View itemView) {
+        MessageHolder(View itemView, RecyclerView.RecycledViewPool segmentPool) {
             super(itemView);
             messageText = itemView.findViewById(R.id.tvMessage);
             timeText = itemView.findViewById(R.id.tvTimestamp);
-            messageContainer = itemView.findViewById(R.id.messageContainer);
-            context = itemView.getContext();
+            segmentList = itemView.findViewById(R.id.rvSegments);
+
+            LinearLayoutManager layoutManager = new LinearLayoutManager(itemView.getContext());
+            // 消息被回收时把分段视图放回共用的视图池，供其他消息使用
+            layoutManager.setRecycleChildrenOnDetach(true);
+            segmentList.setLayoutManager(layoutManager);
+            segmentList.setRecycledViewPool(segmentPool);
+            segmentList.setItemAnimator(null);
+            segmentList.setAdapter(segmentAdapter);
         }
 
-        void bind(Message message) {
-            String text = message.getText();
-
-            // 提取数学表达式
-            List<String> mathExpressions = MarkdownHelper.extractMathExpressions(text);
-
-            if (!mathExpressions.isEmpty()) {
-                // 有数学表达式，使用MathJaxView显示
-                // 首先清除消息容器中的所有视图
-                messageContainer.removeAllViews();
-
-                // 处理文本中的数学表达式
-                String[] textParts = text.split("\\$.*?\\$");
-                int expressionIndex = 0;
-
-                // 添加第一部分文本（如果有）
-                if (textParts.length > 0 && !textParts[0].isEmpty()) {
-                    TextView textView = new TextView(context);
-                    textView.setText(MarkdownHelper.formatMarkdown(textParts[0]));
-                    textView.setTextColor(messageText.getTextColors());
-                    textView.setTextSize(16);
-                    // 设置TextView可滚动
-                    textView.setMaxLines(1000);
-                    textView.setVerticalScrollBarEnabled(true);
-                    textView.setMovementMethod(new android.text.method.ScrollingMovementMethod());
-                    messageContainer.addView(textView);
-                }
-
-                // 添加数学表达式和文本
-                for (String expression : mathExpressions) {
-                    // 添加数学表达式
-                    MathExpressionView mathView = MarkdownHelper.createMathExpressionView(context, "$" + expression + "$");
-                    messageContainer.addView(mathView);
-
-                    // 添加下一部分文本（如果有）
-                    if (expressionIndex + 1 < textParts.length && !textParts[expressionIndex + 1].isEmpty()) {
-                        TextView textView = new TextView(context);
-                        textView.setText(MarkdownHelper.formatMarkdown(textParts[expressionIndex + 1]));
-                        textView.setTextColor(messageText.getTextColors());
-                        textView.setTextSize(16);
-                        // 设置TextView可滚动
-                        textView.setMaxLines(1000);
-                        textView.setVerticalScrollBarEnabled(true);
-                        textView.setMovementMethod(new android.text.method.ScrollingMovementMethod());
-                        messageContainer.addView(textView);
-                    }
-
-                    expressionIndex++;
-                }
-
+        void bindContent(Message message, MessageRenderCache.Entry rendered, MessageTextPrecomputer textPrecomputer) {
+            if (!rendered.isPlainText()) {
+                // 有数学表达式或代码块，按分段显示，分段视图从共用的视图池中取得
+                segmentAdapter.setSegments(rendered.getSegments(), messageText.getTextColors());
                 // 隐藏原始消息文本视图
                 messageText.setVisibility(View.GONE);
             } else {
-                // 没有数学表达式，使用普通文本显示
+                // 没有数学表达式和代码块，使用普通文本显示；之前显示的分段视图放回视图池
+                segmentAdapter.setSegments(Collections.emptyList(), null);
                 messageText.setVisibility(View.VISIBLE);
-                messageText.setText(MarkdownHelper.formatMarkdown(text));
+                MessageSegment segment = rendered.getSegments().get(0);
+                PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(messageText);
+                PrecomputedTextCompat precomputed = segment.getPrecomputedText(params);
+                if (precomputed != null) {
+                    // 使用后台已经格式化和测量好的文本
+                    TextViewCompat.setPrecomputedText(messageText, precomputed);
+                } else {
+                    messageText.setText(segment.getText());
+                    textPrecomputer.request(message, params);
+                }
                 // 设置TextView可滚动
                 messageText.setMovementMethod(new android.text.method.ScrollingMovementMethod());
             }
-
-            timeText.setText(message.getTimestamp());
         }
     }
 
-    private static class ReceivedMessageHolder extends RecyclerView.ViewHolder {
-        TextView messageText, timeText;
-        LinearLayout messageContainer;
-        Context context;
+    private static class SentMessageHolder extends MessageHolder {
 
-        ReceivedMessageHolder(View itemView) {
-            super(itemView);
-            messageText = itemView.findViewById(R.id.tvMessage);
-            timeText = itemView.findViewById(R.id.tvTimestamp);
-            messageContainer = itemView.findViewById(R.id.messageContainer);
-            context = itemView.getContext();
+        SentMessageHolder(View itemView, RecyclerView.RecycledViewPool segmentPool) {
+            super(itemView, segmentPool);
         }
 
-        void bind(Message message) {
-            String text = message.getText();
-
-            // 提取数学表达式
-            List<String> mathExpressions = MarkdownHelper.extractMathExpressions(text);
-
-            if (!mathExpressions.isEmpty()) {
-                // 有数学表达式，使用MathJaxView显示
-                // 首先清除消息容器中的所有视图
-                messageContainer.removeAllViews();
-
-                // 处理文本中的数学表达式
-                String[] textParts = text.split("\\$.*?\\$");
-                int expressionIndex = 0;
-
-                // 添加第一部分文本（如果有）
-                if (textParts.length > 0 && !textParts[0].isEmpty()) {
-                    TextView textView = new TextView(context);
-                    textView.setText(MarkdownHelper.formatMarkdown(textParts[0]));
-                    textView.setTextColor(messageText.getTextColors());
-                    textView.setTextSize(16);
-                    // 设置TextView可滚动
-                    textView.setMaxLines(1000);
-                    textView.setVerticalScrollBarEnabled(true);
-                    textView.setMovementMethod(new android.text.method.ScrollingMovementMethod());
-                    messageContainer.addView(textView);
-                }
+        void bind(Message message, MessageRenderCache.Entry rendered, MessageTextPrecomputer textPrecomputer) {
+            bindContent(message, rendered, textPrecomputer);
+            // 等待网络的问题在时间后显示发送状态
+            timeText.setText(message.isPending() ? message.getTimestamp() + " 等待网络…" : message.getTimestamp());
+        }
+    }
 
-                // 添加数学表达式和文本
-                for (String expression : mathExpressions) {
-                    // 添加数学表达式
-                    MathExpressionView mathView = MarkdownHelper.createMathExpressionView(context, "$" + expression + "$");
-                    messageContainer.addView(mathView);
-
-                    // 添加下一部分文本（如果有）
-                    if (expressionIndex + 1 < textParts.length && !textParts[expressionIndex + 1].isEmpty()) {
-                        TextView textView = new TextView(context);
-                        textView.setText(MarkdownHelper.formatMarkdown(textParts[expressionIndex + 1]));
-                        textView.setTextColor(messageText.getTextColors());
-                        textView.setTextSize(16);
-                        // 设置TextView可滚动
-                        textView.setMaxLines(1000);
-                        textView.setVerticalScrollBarEnabled(true);
-                        textView.setMovementMethod(new android.text.method.ScrollingMovementMethod());
-                        messageContainer.addView(textView);
-                    }
-
-                    expressionIndex++;
-                }
+    private static class ReceivedMessageHolder extends MessageHolder {
 
-                // 隐藏原始消息文本视图
-                messageText.setVisibility(View.GONE);
-            } else {
-                // 没有数学表达式，使用普通文本显示
-                messageText.setVisibility(View.VISIBLE);
-                messageText.setText(MarkdownHelper.formatMarkdown(text));
-                // 设置TextView可滚动
-                messageText.setMovementMethod(new android.text.method.ScrollingMovementMethod());
-            }
+        ReceivedMessageHolder(View itemView, RecyclerView.RecycledViewPool segmentPool) {
+            super(itemView, segmentPool);
+        }
 
+        void bind(Message message, MessageRenderCache.Entry rendered, MessageTextPrecomputer textPrecomputer) {
+            bindContent(message, rendered, textPrecomputer);
             timeText.setText(message.getTimestamp());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,159 @@
+package com.example.guangxiaoqing;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import com.example.guangxiaoqing.utils.MarkdownBlockSplitter;
+import com.example.guangxiaoqing.utils.MarkdownHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 已完成消息的渲染结果缓存
+ * 以消息ID为键，结果记录生成时的内容版本，消息文本改变后旧结果不再使用；
+ * 缓存格式化后的文本和分段结果（文本、数学表达式和代码块），滚动回已显示过的消息时不再解析Markdown和数学表达式；
+ * 按原文字符数限制大小，最近最少使用的结果先被移除，内存不足时清理
+ * 只在主线程访问
+ */
+class MessageRenderCache {
+    private static final String TAG = "MessageRenderCache";
+    // 缓存的原文总字符数上限
+    private static final int MAX_CHARS = 512 * 1024;
+
+    private final LruCache<Long, Entry> entries = new LruCache<Long, Entry>(MAX_CHARS) {
+        @Override
+        protected int sizeOf(Long key, Entry value) {
+            return value.length + 1;
+        }
+    };
+
+    /**
+     * 获取消息当前内容的渲染结果，没有缓存或消息已改变时返回null
+     */
+    Entry get(Message message) {
+        Entry entry = entries.get(message.getId());
+        if (entry == null || entry.version != message.getVersion()) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 保存渲染结果，消息在渲染之后已经改变时丢弃
+     */
+    void put(Message message, Entry entry) {
+        if (entry.version != message.getVersion()) {
+            return;
+        }
+        entries.put(message.getId(), entry);
+    }
+
+    /**
+     * 系统内存不足时释放缓存
+     * @param level ComponentCallbacks2中的内存级别
+     */
+    void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            entries.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            entries.trimToSize(MAX_CHARS / 2);
+        }
+        Log.d(TAG, "内存级别" + level + "，渲染缓存剩余" + entries.size() + "字符");
+    }
+
+    /**
+     * 解析并格式化消息文本，可在后台线程调用
+     * @param text 消息原文
+     * @param version 消息的内容版本
+     * @param params 不为null时同时预先排版没有数学表达式和代码块的文本
+     */
+    static Entry render(String text, int version, PrecomputedTextCompat.Params params) {
+        List<MarkdownBlockSplitter.Block> blocks = MarkdownBlockSplitter.split(text);
+        if (isPlainText(blocks)) {
+            CharSequence formatted = MarkdownHelper.formatMarkdown(text);
+            PrecomputedTextCompat precomputed = params != null ? PrecomputedTextCompat.create(formatted, params) : null;
+            return new Entry(version, text.length(),
+                    Collections.singletonList(MessageSegment.text(formatted, precomputed)));
+        }
+
+        List<MessageSegment> segments = new ArrayList<>(blocks.size());
+        for (MarkdownBlockSplitter.Block block : blocks) {
+            segments.add(segment(block));
+        }
+        return new Entry(version, text.length(), segments);
+    }
+
+    /**
+     * 把一个分段转换为显示用的MessageSegment，文本段在这里格式化，可在后台线程调用
+     */
+    static MessageSegment segment(MarkdownBlockSplitter.Block block) {
+        switch (block.getType()) {
+            case INLINE_MATH:
+                return MessageSegment.inlineMath(block.getContent());
+            case DISPLAY_MATH:
+                return MessageSegment.displayMath(block.getContent());
+            case CODE:
+                return MessageSegment.code(block.getContent());
+            default:
+                return MessageSegment.text(MarkdownHelper.formatMarkdown(block.getContent()), null);
+        }
+    }
+
+    private static boolean isPlainText(List<MarkdownBlockSplitter.Block> blocks) {
+        return blocks.size() == 1 && blocks.get(0).getType() == MarkdownBlockSplitter.Type.TEXT;
+    }
+
+    /**
+     * 一条消息的渲染结果
+     */
+    static class Entry {
+        private final int version;
+        // 原文字符数，用于限制缓存大小
+        private final int length;
+        private final List<MessageSegment> segments;
+
+        Entry(int version, int length, List<MessageSegment> segments) {
+            this.version = version;
+            this.length = length;
+            this.segments = segments;
+        }
+
+        List<MessageSegment> getSegments() {
+            return segments;
+        }
+
+        /**
+         * 没有数学表达式和代码块，整条消息是一段文本
+         */
+        boolean isPlainText() {
+            return segments.size() == 1 && segments.get(0).getType() == MarkdownBlockSplitter.Type.TEXT;
+        }
+
+        /**
+         * 用已经格式化的文本预先排版，不再重新解析原文，可在后台线程调用
+         * @param params 显示文本的TextView的排版参数
+         * @return 带有预先排版结果的新结果，有数学表达式或代码块时返回自身
+         */
+        Entry precompute(PrecomputedTextCompat.Params params) {
+            if (!isPlainText()) {
+                return this;
+            }
+            CharSequence formatted = segments.get(0).getText();
+            return new Entry(version, length, Collections.singletonList(
+                    MessageSegment.text(formatted, PrecomputedTextCompat.create(formatted, params))));
+        }
+
+        /**
+         * 是否已经得到所有可以预先计算的结果
+         */
+        boolean isPrecomputed(PrecomputedTextCompat.Params params) {
+            return !isPlainText() || segments.get(0).getPrecomputedText(params) != null;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.guangxiaoqing;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import com.example.guangxiaoqing.utils.MarkdownBlockSplitter;
+
+/**
+ * 消息内容中的一段：格式化后的文本、数学表达式或代码块，每种类型在MessageSegmentAdapter中是一种视图类型
+ */
+class MessageSegment {
+
+    private final MarkdownBlockSplitter.Type type;
+    // TEXT：格式化后的文本；CODE：代码原文
+    private final CharSequence text;
+    // TEXT：后台预先排版的文本，没有时为null
+    private final PrecomputedTextCompat precomputedText;
+    // INLINE_MATH、DISPLAY_MATH：包含$或$$的LaTeX表达式
+    private final String latex;
+
+    private MessageSegment(MarkdownBlockSplitter.Type type, CharSequence text, PrecomputedTextCompat precomputedText, String latex) {
+        this.type = type;
+        this.text = text;
+        this.precomputedText = precomputedText;
+        this.latex = latex;
+    }
+
+    static MessageSegment text(CharSequence text, PrecomputedTextCompat precomputedText) {
+        return new MessageSegment(MarkdownBlockSplitter.Type.TEXT, text, precomputedText, null);
+    }
+
+    static MessageSegment inlineMath(String expression) {
+        return new MessageSegment(MarkdownBlockSplitter.Type.INLINE_MATH, null, null, "$" + expression + "$");
+    }
+
+    static MessageSegment displayMath(String expression) {
+        return new MessageSegment(MarkdownBlockSplitter.Type.DISPLAY_MATH, null, null, "$$" + expression + "$$");
+    }
+
+    static MessageSegment code(String code) {
+        return new MessageSegment(MarkdownBlockSplitter.Type.CODE, code, null, null);
+    }
+
+    MarkdownBlockSplitter.Type getType() {
+        return type;
+    }
+
+    CharSequence getText() {
+        return text;
+    }
+
+    /**
+     * 获取预先排版的文本，排版参数与TextView不同时返回null（此时只能使用getText）
+     * @param params 显示文本的TextView的排版参数
+     */
+    PrecomputedTextCompat getPrecomputedText(PrecomputedTextCompat.Params params) {
+        if (precomputedText == null || !precomputedText.getParams().equals(params)) {
+            return null;
+        }
+        return precomputedText;
+    }
+
+    String getLatex() {
+        return latex;
+    }
+}
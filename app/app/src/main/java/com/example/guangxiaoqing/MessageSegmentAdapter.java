@@ -0,0 +1,152 @@
+package com.example.guangxiaoqing;
+
+import android.content.res.ColorStateList;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.guangxiaoqing.utils.MarkdownBlockSplitter;
+import com.example.guangxiaoqing.utils.MathExpressionView;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一条消息内的分段列表：文本、行内数学表达式、独立数学表达式和代码块各是一种视图类型
+ * 所有消息的分段列表共用MessageAdapter中的RecycledViewPool，滚动时复用已创建的视图（特别是WebView），
+ * 而不是每次绑定都重新创建
+ */
+class MessageSegmentAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+
+    static final int VIEW_TYPE_TEXT = 1;
+    static final int VIEW_TYPE_INLINE_MATH = 2;
+    static final int VIEW_TYPE_DISPLAY_MATH = 3;
+    static final int VIEW_TYPE_CODE = 4;
+
+    private List<MessageSegment> segments = Collections.emptyList();
+    // 文本分段使用与消息气泡相同的文字颜色
+    private ColorStateList textColors;
+
+    /**
+     * 显示一条消息的分段
+     * @param segments 分段，为空列表时移除所有分段视图并放回共用的视图池
+     * @param textColors 文本分段的文字颜色
+     */
+    void setSegments(List<MessageSegment> segments, ColorStateList textColors) {
+        if (segments == this.segments) {
+            return;
+        }
+        List<MessageSegment> previous = this.segments;
+        this.segments = segments;
+        this.textColors = textColors;
+        // 流式回答更新时前面已经稳定的分段是同一个对象，只通知之后改变的分段
+        int unchanged = 0;
+        while (unchanged < previous.size() && unchanged < segments.size()
+                && previous.get(unchanged) == segments.get(unchanged)) {
+            unchanged++;
+        }
+        if (unchanged == 0) {
+            notifyDataSetChanged();
+            return;
+        }
+        int previousRest = previous.size() - unchanged;
+        int rest = segments.size() - unchanged;
+        int changed = Math.min(previousRest, rest);
+        if (changed > 0) {
+            notifyItemRangeChanged(unchanged, changed);
+        }
+        if (previousRest > rest) {
+            notifyItemRangeRemoved(unchanged + rest, previousRest - rest);
+        } else if (rest > previousRest) {
+            notifyItemRangeInserted(unchanged + previousRest, rest - previousRest);
+        }
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        switch (segments.get(position).getType()) {
+            case INLINE_MATH:
+                return VIEW_TYPE_INLINE_MATH;
+            case DISPLAY_MATH:
+                return VIEW_TYPE_DISPLAY_MATH;
+            case CODE:
+                return VIEW_TYPE_CODE;
+            default:
+                return VIEW_TYPE_TEXT;
+        }
+    }
+
+    @NonNull
+    @Override
+    public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        LayoutInflater inflater = LayoutInflater.from(parent.getContext());
+        switch (viewType) {
+            case VIEW_TYPE_INLINE_MATH:
+            case VIEW_TYPE_DISPLAY_MATH:
+                return new MathHolder(inflater.inflate(R.layout.item_segment_math, parent, false));
+            case VIEW_TYPE_CODE:
+                return new CodeHolder(inflater.inflate(R.layout.item_segment_code, parent, false));
+            default:
+                return new TextHolder(inflater.inflate(R.layout.item_segment_text, parent, false));
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
+        MessageSegment segment = segments.get(position);
+        switch (holder.getItemViewType()) {
+            case VIEW_TYPE_INLINE_MATH:
+            case VIEW_TYPE_DISPLAY_MATH:
+                ((MathHolder) holder).mathView.setLatex(segment.getLatex());
+                break;
+            case VIEW_TYPE_CODE:
+                ((CodeHolder) holder).codeText.setText(segment.getText());
+                break;
+            default:
+                TextView textView = ((TextHolder) holder).textView;
+                textView.setText(segment.getText());
+                if (textColors != null) {
+                    textView.setTextColor(textColors);
+                }
+                break;
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return segments.size();
+    }
+
+    private static class TextHolder extends RecyclerView.ViewHolder {
+        TextView textView;
+
+        TextHolder(View itemView) {
+            super(itemView);
+            textView = (TextView) itemView;
+            // 设置TextView可滚动
+            textView.setMovementMethod(new android.text.method.ScrollingMovementMethod());
+        }
+    }
+
+    private static class MathHolder extends RecyclerView.ViewHolder {
+        MathExpressionView mathView;
+
+        MathHolder(View itemView) {
+            super(itemView);
+            mathView = (MathExpressionView) itemView;
+        }
+    }
+
+    private static class CodeHolder extends RecyclerView.ViewHolder {
+        TextView codeText;
+
+        CodeHolder(View itemView) {
+            super(itemView);
+            codeText = itemView.findViewById(R.id.tvCode);
+        }
+    }
+}
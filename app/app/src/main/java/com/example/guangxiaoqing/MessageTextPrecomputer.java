@@ -0,0 +1,111 @@
+package com.example.guangxiaoqing;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 在后台线程中把消息格式化为PrecomputedTextCompat
+ * Markdown解析和文字测量都在后台完成，绑定时只需把结果交给TextView，快速滑动长聊天记录时主线程不再解析和测量；
+ * 已经在绑定时格式化的消息只在后台排版，每条消息只解析一次；
+ * 结果保存在MessageRenderCache中，绑定时内容版本或排版参数不一致的结果不会被使用；所有方法都在主线程调用
+ */
+class MessageTextPrecomputer {
+    private static final String TAG = "MessageTextPrecomputer";
+    // 绑定一条消息时预先计算前后各几条消息
+    private static final int PREFETCH_DISTANCE = 4;
+
+    private static ExecutorService executor = null;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final MessageRenderCache renderCache;
+    // 已提交但还没有完成的消息，以及提交时的内容版本
+    private final Map<Message, Integer> queued = new HashMap<>();
+    // 最近一次绑定时TextView的排版参数，用于预先计算附近的消息
+    private PrecomputedTextCompat.Params lastParams;
+
+    MessageTextPrecomputer(MessageRenderCache renderCache) {
+        this.renderCache = renderCache;
+    }
+
+    /**
+     * 提交一条消息的预先计算，正在接收的回答和已有完整结果的消息不提交
+     * @param message 消息
+     * @param params 显示消息的TextView的排版参数
+     */
+    void request(Message message, PrecomputedTextCompat.Params params) {
+        lastParams = params;
+        if (message.isStreaming()) {
+            return;
+        }
+        int version = message.getVersion();
+        Integer queuedVersion = queued.get(message);
+        MessageRenderCache.Entry cached = renderCache.get(message);
+        if ((queuedVersion != null && queuedVersion == version)
+                || (cached != null && cached.isPrecomputed(params))) {
+            return;
+        }
+        queued.put(message, version);
+        String source = message.getText();
+        getExecutor().execute(() -> {
+            MessageRenderCache.Entry result;
+            try {
+                // 绑定时已经格式化过的消息只需排版，预先计算附近的消息时才在后台解析
+                result = cached != null ? cached.precompute(params)
+                        : MessageRenderCache.render(source, version, params);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "预先计算消息文本失败", e);
+                result = null;
+            }
+            MessageRenderCache.Entry rendered = result;
+            handler.post(() -> {
+                Integer current = queued.get(message);
+                if (current != null && current == version) {
+                    queued.remove(message);
+                }
+                if (rendered != null) {
+                    renderCache.put(message, rendered);
+                }
+            });
+        });
+    }
+
+    /**
+     * 预先计算position前后的消息，快速滑动时即将显示的消息在绑定前已经准备好
+     * @param messages 消息列表
+     * @param position 刚绑定的位置
+     */
+    void prefetch(List<Message> messages, int position) {
+        if (lastParams == null) {
+            return;
+        }
+        int from = Math.max(0, position - PREFETCH_DISTANCE);
+        int to = Math.min(messages.size() - 1, position + PREFETCH_DISTANCE);
+        for (int i = from; i <= to; i++) {
+            if (i != position) {
+                request(messages.get(i), lastParams);
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "message-precompute");
+                thread.setDaemon(true);
+                // 低于主线程和渲染线程的优先级，不与滑动争抢CPU
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+        return executor;
+    }
+}
@@ -1,9 +1,15 @@
 package com.example.guangxiaoqing;
 
 import android.app.Application;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import androidx.appcompat.app.AppCompatDelegate;
 
+import com.example.guangxiaoqing.api.ApiClient;
+import com.example.guangxiaoqing.utils.ToastHelper;
+
 public class MyApplication extends Application {
     
     @Override
@@ -29,5 +35,14 @@ public class MyApplication extends Application {
         } catch (Exception e) {
             Log.e("MyApplication", "Error setting theme: " + e.getMessage());
         }
+
+        // 登录过期时回到登录页面，并发请求同时发现过期时只会调用一次
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        ApiClient.setSessionExpiredListener(() -> mainHandler.post(() -> {
+            ToastHelper.showInfo(this, "登录已过期，请重新登录");
+            Intent intent = new Intent(this, LoginActivity.class);
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+            startActivity(intent);
+        }));
     }
 } 
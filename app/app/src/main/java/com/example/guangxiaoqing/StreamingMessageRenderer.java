@@ -0,0 +1,87 @@
+package com.example.guangxiaoqing;
+
+import com.example.guangxiaoqing.utils.IncrementalMarkdownRenderer;
+import com.example.guangxiaoqing.utils.MarkdownBlockSplitter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 流式回答的增量分段渲染
+ * 每条正在接收的回答保存一个实例：稳定边界之前的分段（之后到达的文本不会再改变）只分段和格式化一次，
+ * 得到的MessageSegment在之后的每次更新中复用；每次更新只对最后一个稳定边界之后的部分重新分段，
+ * 这部分没有数学表达式和代码块时再用IncrementalMarkdownRenderer只格式化其中未稳定的部分；
+ * 调用方告知文本中没有变化的前缀长度，已稳定的原文只比较之后的部分；
+ * 结果与MessageRenderCache.render对全文的渲染一致，只在主线程调用
+ */
+class StreamingMessageRenderer {
+    // 稳定边界之前的分段
+    private final List<MessageSegment> stableSegments = new ArrayList<>();
+    // 稳定边界之前的原文
+    private final StringBuilder stableSource = new StringBuilder();
+    // 稳定边界之后的文本段
+    private final IncrementalMarkdownRenderer tailRenderer = new IncrementalMarkdownRenderer();
+    // 上一次的全文长度、稳定边界，以及交给tailRenderer的文本段长度（没有交给它时为-1）
+    private int lastLength = 0;
+    private int lastBoundary = 0;
+    private int lastTailLength = -1;
+
+    /**
+     * 渲染回答的当前全文
+     * 新文本以已稳定的原文开头时只处理新增部分，否则（回答被清空重来、消息被改写）从头处理
+     * @param text 回答全文
+     * @param unchangedLength text的前unchangedLength个字符与上一次调用时相同，只在末尾追加时为上一次的长度
+     * @param version 消息的内容版本
+     * @return 渲染结果，最后一个文本段在下一次调用时会被修改
+     */
+    MessageRenderCache.Entry render(String text, int unchangedLength, int version) {
+        if (!startsWithStable(text, unchangedLength)) {
+            stableSegments.clear();
+            stableSource.setLength(0);
+            unchangedLength = 0;
+        }
+        boolean appended = unchangedLength >= lastLength;
+
+        List<MarkdownBlockSplitter.Block> stable = new ArrayList<>();
+        int boundary = MarkdownBlockSplitter.stableBoundary(text, stableSource.length(), stable);
+        for (MarkdownBlockSplitter.Block block : stable) {
+            stableSegments.add(MessageRenderCache.segment(block));
+        }
+        if (boundary > stableSource.length()) {
+            stableSource.append(text, stableSource.length(), boundary);
+        }
+
+        List<MarkdownBlockSplitter.Block> tail = MarkdownBlockSplitter.split(text, boundary);
+        List<MessageSegment> segments = new ArrayList<>(stableSegments.size() + tail.size());
+        segments.addAll(stableSegments);
+        int tailLength = -1;
+        if (tail.size() == 1 && tail.get(0).getType() == MarkdownBlockSplitter.Type.TEXT) {
+            String content = tail.get(0).getContent();
+            // 边界没有移动且只在末尾追加时，上一次的文本段是这次的前缀（两端去掉的换行不影响这一点）
+            int tailUnchanged = appended && boundary == lastBoundary ? Math.max(lastTailLength, 0) : 0;
+            segments.add(MessageSegment.text(tailRenderer.render(content, tailUnchanged), null));
+            tailLength = content.length();
+        } else {
+            for (MarkdownBlockSplitter.Block block : tail) {
+                segments.add(MessageRenderCache.segment(block));
+            }
+        }
+        lastLength = text.length();
+        lastBoundary = boundary;
+        lastTailLength = tailLength;
+        return new MessageRenderCache.Entry(version, text.length(), segments);
+    }
+
+    private boolean startsWithStable(String text, int unchangedLength) {
+        int length = stableSource.length();
+        if (text.length() < length) {
+            return false;
+        }
+        for (int i = length - 1; i >= unchangedLength; i--) {
+            if (text.charAt(i) != stableSource.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -15,6 +15,9 @@ public class UserSession {
     private SharedPreferences sharedPreferences;
     private SharedPreferences.Editor editor;
     private Context context;
+    // 内存中的token和认证头，写入时同时保存到SharedPreferences，每次请求不再读取存储和拼接字符串
+    private volatile String token;
+    private volatile String authHeader;
     
     // 单例模式实例
     private static UserSession instance;
@@ -23,6 +26,7 @@ public class UserSession {
         this.context = context;
         sharedPreferences = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
         editor = sharedPreferences.edit();
+        setToken(sharedPreferences.getString(KEY_TOKEN, null));
     }
     
     /**
@@ -39,6 +43,7 @@ public class UserSession {
      * 保存登录状态和用户信息
      */
     public void saveLoginSession(String phoneNumber, String token) {
+        setToken(token);
         editor.putBoolean(KEY_IS_LOGGED_IN, true);
         editor.putString(KEY_USER_PHONE, phoneNumber);
         editor.putString(KEY_TOKEN, token);
@@ -49,13 +54,22 @@ public class UserSession {
      * 获取保存的token
      */
     public String getToken() {
-        return sharedPreferences.getString(KEY_TOKEN, null);
+        return token;
+    }
+
+    /**
+     * 获取认证头
+     * @return "Bearer "加token，未登录时为null
+     */
+    public String getAuthHeader() {
+        return authHeader;
     }
     
     /**
      * 清除登录状态
      */
     public void clearLoginSession() {
+        setToken(null);
         editor.clear();
         editor.apply();
     }
@@ -73,4 +87,9 @@ public class UserSession {
     public String getUserPhone() {
         return sharedPreferences.getString(KEY_USER_PHONE, "");
     }
-}
\ No newline at end of file
+
+    private synchronized void setToken(String token) {
+        this.token = token;
+        this.authHeader = token != null && !token.isEmpty() ? "Bearer " + token : null;
+    }
+}
@@ -3,40 +3,92 @@ package com.example.guangxiaoqing.api;
 import android.content.Context;
 import android.util.Log;
 
+import com.example.guangxiaoqing.BuildConfig;
 import com.example.guangxiaoqing.UserSession;
+import com.example.guangxiaoqing.utils.NetworkConditions;
+import com.example.guangxiaoqing.utils.NetworkTypeTracker;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
-import okhttp3.logging.HttpLoggingInterceptor;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 
 /**
  * API客户端，用于创建Retrofit实例和提供API服务
+ * 整个进程只有一个OkHttpClient，所有接口共享连接池和调度器，各接口的超时和日志策略见EndpointPolicy
  */
 public class ApiClient {
     private static final String TAG = "ApiClient";
     // 后端服务器地址
     public static final String BASE_URL = "http://47.97.48.127/api/";  // 通过反向代理访问API
+    // DEBUG构建中每10个请求记录一次请求体和响应体
+    private static final int LOG_BODY_SAMPLE_RATE = 10;
+    private static OkHttpClient httpClient = null;
+    // 按实测网络状况计算超时，由共享客户端的拦截器和流式聊天的读取共同使用
+    private static DeadlineManager deadlineManager = null;
+    private static ProtocolFallbackCallFactory callFactory = null;
+    // 所有请求共享的重试预算，新的登录会话开始时重置
+    private static final RetryBudget retryBudget = new RetryBudget();
+    // 重试等待使用的定时线程，不占用OkHttp调度线程
+    private static ScheduledExecutorService retryScheduler = null;
+    // 明文连接是否在探测确认服务器支持后使用HTTP/2（h2c prior knowledge）
+    // 默认关闭：后端由uvicorn提供服务，不支持HTTP/2，开启后每次启动只会多一次失败的探测；反向代理支持h2c后再开启
+    private static boolean h2cPriorKnowledge = false;
+    // 超过1KB的请求体（主要是带历史记录的聊天请求）压缩后上传，默认关闭，服务器支持解压后再启用
+    private static final GzipRequestInterceptor gzipInterceptor =
+            new GzipRequestInterceptor(GzipRequestInterceptor.DEFAULT_MIN_SIZE);
+    private static ConnectionPrewarmer prewarmer = null;
+    // 所有请求共享的401处理，并发的认证失败只执行一次退出流程
+    private static SessionAuthenticator authenticator = null;
+    // 登录过期时的处理（跳转到登录页面），由应用设置
+    private static volatile Runnable sessionExpiredListener = null;
     private static Retrofit retrofit = null;
     private static ApiService apiService = null;
 
+    /**
+     * 获取进程共享的OkHttpClient
+     * 需要不同配置时使用newBuilder()派生，派生的客户端仍共享连接池和调度器
+     * @param context 上下文
+     * @return OkHttpClient实例
+     */
+    public static synchronized OkHttpClient getHttpClient(Context context) {
+        if (httpClient == null) {
+            httpClient = createOkHttpClient(context);
+        }
+        return httpClient;
+    }
+
+    /**
+     * 获取共享客户端使用的超时计算
+     * @param context 上下文
+     * @return DeadlineManager实例
+     */
+    public static synchronized DeadlineManager getDeadlineManager(Context context) {
+        getHttpClient(context);
+        return deadlineManager;
+    }
+
     /**
      * 获取Retrofit实例
      * @param context 上下文
      * @return Retrofit实例
      */
-    public static Retrofit getClient(Context context) {
+    public static synchronized Retrofit getClient(Context context) {
         if (retrofit == null) {
-            // 直接使用createOkHttpClient方法创建的客户端
-            OkHttpClient client = createOkHttpClient(context);
-
-            // 创建Retrofit实例
+            // 使用进程共享的客户端，由请求工厂决定每个请求的协议
+            callFactory = new ProtocolFallbackCallFactory(getHttpClient(context));
+            callFactory.setPriorKnowledgeEnabled(h2cPriorKnowledge);
+            ProtocolFallbackCallFactory protocolFactory = callFactory;
             retrofit = new Retrofit.Builder()
                     .baseUrl(BASE_URL)
-                    .client(client)
-                    .addConverterFactory(GsonConverterFactory.create())
+                    // 创建请求前补上关联ID，请求计时等事件从一开始就能带上它
+                    .callFactory(request -> protocolFactory.newCall(CorrelationId.ensure(request)))
+                    .addCallAdapterFactory(new RetryCallAdapterFactory(getRetryScheduler(), retryBudget))
+                    .addConverterFactory(GsonConverterFactory.create(ModelTypeAdapters.createGson()))
                     .build();
         }
         return retrofit;
@@ -47,145 +99,161 @@ public class ApiClient {
      * @param context 上下文
      * @return API服务接口
      */
-    public static ApiService getApiService(Context context) {
+    public static synchronized ApiService getApiService(Context context) {
         if (apiService == null) {
             apiService = getClient(context).create(ApiService.class);
         }
         return apiService;
     }
 
+    /**
+     * 预热到后端服务器的连接，使下一次聊天请求不需要等待握手
+     * 省电模式、低电量、流量节省程序开启或没有网络时不预热，频率受ConnectionPrewarmer限制
+     * @param context 上下文
+     * @param reason 触发原因，只用于日志
+     * @return true表示发出了预热请求
+     */
+    public static boolean prewarm(Context context, String reason) {
+        if (!NetworkConditions.allowsSpeculativeTraffic(context)) {
+            return false;
+        }
+        ConnectionPrewarmer connectionPrewarmer;
+        synchronized (ApiClient.class) {
+            if (prewarmer == null) {
+                getClient(context);
+                prewarmer = new ConnectionPrewarmer(callFactory, httpClient.connectionPool(), HttpUrl.get(BASE_URL));
+            }
+            connectionPrewarmer = prewarmer;
+        }
+        return connectionPrewarmer.prewarm(reason);
+    }
+
+    /**
+     * 获取所有请求共享的重试预算
+     * @return 重试预算
+     */
+    public static RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    private static synchronized ScheduledExecutorService getRetryScheduler() {
+        if (retryScheduler == null) {
+            retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "http-retry");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return retryScheduler;
+    }
+
+    /**
+     * 设置明文连接是否在探测确认服务器支持后使用HTTP/2（h2c prior knowledge）
+     * HTTPS连接总是通过ALPN协商，不受此设置影响
+     * @param enabled 是否启用
+     */
+    public static synchronized void setH2cPriorKnowledge(boolean enabled) {
+        h2cPriorKnowledge = enabled;
+        if (callFactory != null) {
+            callFactory.setPriorKnowledgeEnabled(enabled);
+        }
+    }
+
+    /**
+     * 设置是否gzip压缩较大的请求体
+     * 服务器以415或400拒绝压缩的请求时自动以未压缩的请求重发，并对该主机不再压缩
+     * @param enabled 是否启用
+     */
+    public static void setRequestCompression(boolean enabled) {
+        gzipInterceptor.setEnabled(enabled);
+    }
+
+    /**
+     * 获取请求实际使用的协议，例如"h2"或"http/1.1"
+     * @param response Retrofit响应
+     * @return 协议名称
+     */
+    public static String getProtocol(retrofit2.Response<?> response) {
+        return response.raw().protocol().toString();
+    }
+
     /**
      * 获取带认证的API服务
      * @param context 上下文
      * @return 带认证头的API服务
      */
     public static String getAuthHeader(Context context) {
-        UserSession userSession = UserSession.getInstance(context);
-        String token = userSession.getToken();
-        if (token != null && !token.isEmpty()) {
-            return "Bearer " + token;
+        // 认证头缓存在内存中，不再每次读取SharedPreferences
+        return UserSession.getInstance(context).getAuthHeader();
+    }
+
+    /**
+     * 设置登录过期时的处理，例如跳转到登录页面
+     * 并发请求同时发现登录过期时只调用一次
+     * @param listener 登录过期时执行，可能在网络线程调用
+     */
+    public static void setSessionExpiredListener(Runnable listener) {
+        sessionExpiredListener = listener;
+    }
+
+    /**
+     * 报告认证头被服务器拒绝（不经过OkHttp认证器的401，例如流式聊天的错误响应）
+     * 该认证头已经处理过时不再重复执行退出流程
+     * @param context 上下文
+     * @param failedHeader 被拒绝的认证头
+     */
+    public static void onUnauthorized(Context context, String failedHeader) {
+        if (failedHeader != null) {
+            getAuthenticator(context).onUnauthorized(failedHeader);
         }
-        return null;
+    }
+
+    private static synchronized SessionAuthenticator getAuthenticator(Context context) {
+        if (authenticator == null) {
+            UserSession userSession = UserSession.getInstance(context);
+            authenticator = new SessionAuthenticator(userSession::getAuthHeader, () -> {
+                userSession.clearLoginSession();
+                Runnable listener = sessionExpiredListener;
+                if (listener != null) {
+                    listener.run();
+                }
+            });
+        }
+        return authenticator;
     }
 
     // 创建OkHttpClient实例时增加超时时间和重试机制
     private static OkHttpClient createOkHttpClient(Context context) {
-        // 创建日志拦截器
-        HttpLoggingInterceptor loggingInterceptor = new HttpLoggingInterceptor();
-        loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
-
         // 使用 OkHttpClient.Builder 而不是直接使用 OkHttpClient
+        // 这里的超时是默认值，每个请求实际使用的超时由EndpointPolicy和DeadlineManager决定
         OkHttpClient.Builder builder = new OkHttpClient.Builder()
             .connectTimeout(15, TimeUnit.SECONDS)  // 连接超时时间
-            .readTimeout(120, TimeUnit.SECONDS)    // 增加读取超时时间到120秒，以处理长回答
+            .readTimeout(30, TimeUnit.SECONDS)     // 读取超时时间
             .writeTimeout(15, TimeUnit.SECONDS)    // 写入超时时间
-            .retryOnConnectionFailure(true);       // 启用连接失败重试
-
-        // 添加日志拦截器
-        builder.addInterceptor(loggingInterceptor);
-
-        // 添加重试拦截器
-        builder.addInterceptor(chain -> {
-            okhttp3.Request request = chain.request();
-
-            // 生成请求ID用于日志跟踪
-            String requestId = String.format("%08x", System.currentTimeMillis() & 0xFFFFFFFF);
-            Log.d(TAG, "[" + requestId + "] 发送请求: " + request.url());
-
-            // 最大重试次数
-            int maxRetries = 3;
-            int retryCount = 0;
-
-            okhttp3.Response response = null;
-            while (retryCount < maxRetries) {
-                try {
-                    // 如果不是第一次尝试，添加重试信息到请求头
-                    if (retryCount > 0) {
-                        request = request.newBuilder()
-                                .header("X-Retry-Count", String.valueOf(retryCount))
-                                .build();
-                        Log.d(TAG, "[" + requestId + "] 第" + retryCount + "次重试请求: " + request.url());
-                    }
-
-                    // 执行请求
-                    response = chain.proceed(request);
-
-                    // 如果响应成功或者是流式响应，直接返回
-                    if (response.isSuccessful() || request.url().toString().contains("/chat/stream")) {
-                        Log.d(TAG, "[" + requestId + "] 请求成功: " + response.code());
-                        return response;
-                    }
-
-                    // 如果是服务器错误(5xx)，关闭响应并重试
-                    if (response.code() >= 500) {
-                        Log.d(TAG, "[" + requestId + "] 服务器错误: " + response.code() + "，准备重试");
-                        response.close();
-                        retryCount++;
-                        // 指数退避策略
-                        Thread.sleep(1000 * (1 << retryCount));
-                        continue;
-                    }
-
-                    // 其他错误码直接返回
-                    return response;
-
-                } catch (Exception e) {
-                    Log.e(TAG, "[" + requestId + "] 请求异常: " + e.getMessage(), e);
-
-                    // 关闭之前的响应（如果有）
-                    if (response != null) {
-                        response.close();
-                    }
-
-                    // 增加重试计数
-                    retryCount++;
-
-                    // 如果已达到最大重试次数，抛出异常
-                    if (retryCount >= maxRetries) {
-                        throw new RuntimeException("请求失败，已重试" + retryCount + "次: " + e.getMessage(), e);
-                    }
-
-                    // 等待一段时间后重试
-                    try {
-                        // 指数退避策略
-                        Thread.sleep(1000 * (1 << retryCount));
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        throw new RuntimeException("重试等待被中断", ie);
-                    }
-                }
-            }
+            .retryOnConnectionFailure(true)        // 启用连接失败重试
+            .authenticator(getAuthenticator(context)); // 登录过期的统一处理
 
-            // 这里不应该到达，但为了编译通过
-            throw new RuntimeException("请求失败，已重试" + retryCount + "次");
-        });
-
-        // 添加HTTP/1.1协议强制使用拦截器
-        builder.addInterceptor(chain -> {
-            okhttp3.Request original = chain.request();
-            okhttp3.Request request = original.newBuilder()
-                    .header("Connection", "keep-alive")
-                    .header("Protocol", "HTTP/1.1")
-                    .method(original.method(), original.body())
-                    .build();
-            return chain.proceed(request);
-        });
+        // 按接口和实测的网络状况应用超时，耗时样本由事件监听器收集
+        // 网络类型由网络回调缓存，计算超时时不查询系统服务
+        deadlineManager = new DeadlineManager(new NetworkTypeTracker(context));
+        builder.addInterceptor(EndpointPolicy.timeoutInterceptor(deadlineManager));
+        // DEBUG构建中同时按关联ID记录每个请求的建连、首字节和总耗时
+        builder.eventListenerFactory(CallTimingListener.factory(deadlineManager, BuildConfig.DEBUG));
 
         // 添加流式响应处理拦截器
         builder.addInterceptor(chain -> {
-            okhttp3.Request request = chain.request();
+            // 不经过Retrofit的请求在这里补上关联ID
+            okhttp3.Request request = CorrelationId.ensure(chain.request());
             // 检查是否是流式API请求
             if (request.url().toString().contains("/chat/stream")) {
-                String requestId = String.format("%08x", System.currentTimeMillis() & 0xFFFFFFFF);
+                String requestId = CorrelationId.of(request);
                 Log.d(TAG, "[" + requestId + "] 检测到流式API请求: " + request.url());
 
                 // 确保不会过早关闭连接，添加更多的请求头以支持流式响应
                 request = request.newBuilder()
-                        .header("Accept", "text/plain")
+                        .header("Accept", ChatEventParser.ACCEPT)
                         .header("Cache-Control", "no-cache")
                         .header("X-Requested-With", "XMLHttpRequest")
-                        .header("Connection", "keep-alive")
-                        .header("X-Request-ID", requestId)
                         .build();
                 Log.d(TAG, "[" + requestId + "] 已添加流式响应所需的请求头");
             }
@@ -193,8 +261,18 @@ public class ApiClient {
             return response;
         });
 
-        // 显式设置HTTP协议版本
-        builder.protocols(java.util.Arrays.asList(okhttp3.Protocol.HTTP_1_1));
+        // HTTPS通过ALPN优先协商HTTP/2，流式回答和其他请求复用同一个连接；不支持时使用HTTP/1.1
+        // 明文的BASE_URL不经过ALPN，只能通过setH2cPriorKnowledge使用HTTP/2
+        builder.protocols(java.util.Arrays.asList(okhttp3.Protocol.HTTP_2, okhttp3.Protocol.HTTP_1_1));
+
+        // 日志拦截器只在DEBUG构建中安装，release构建中这段代码在编译期被移除
+        // 放在最后，记录的是其他拦截器处理后的请求；每个请求都会记录协议、耗时和大小，请求体和响应体抽样记录
+        if (BuildConfig.DEBUG) {
+            builder.addInterceptor(new HttpLogInterceptor(LOG_BODY_SAMPLE_RATE));
+        }
+
+        // 压缩放在日志之后，日志中记录的是压缩前的请求体
+        builder.addInterceptor(gzipInterceptor);
 
         return builder.build();
     }
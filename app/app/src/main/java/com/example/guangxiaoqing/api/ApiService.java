@@ -25,11 +25,14 @@ public interface ApiService {
 
     /**
      * 发送短信验证码
+     * @param idempotencyKey 每次发送生成一个，自动重试时不变，服务器据此不重复发送短信
      * @param request 短信请求体
      * @return 响应结果
      */
     @POST("sms/send")
-    Call<Object> sendSms(@Body SmsRequest request);
+    Call<Object> sendSms(
+            @Header(RetryCallAdapterFactory.HEADER_IDEMPOTENCY_KEY) String idempotencyKey,
+            @Body SmsRequest request);
 
     /**
      * 验证短信验证码
@@ -69,6 +72,8 @@ public interface ApiService {
      * @param request 密码修改请求体
      * @return Token响应
      */
+    // 成功后旧密码和旧token失效，重发会因旧密码错误而失败，不自动重试
+    @RetryCallAdapterFactory.NoRetry
     @PUT("users/password")
     Call<TokenResponse> changePassword(
             @Header("Authorization") String token,
@@ -77,10 +82,18 @@ public interface ApiService {
     /**
      * 聊天接口
      * @param token 认证Token
+     * @param requestId 本次回答的请求ID，重连时保持不变
+     * @param resumeOffset 已接收的字符数，首次请求为0；支持续传的服务器在响应头中原样返回
+     * @param deadlineMs 本次回答剩余的时间（毫秒），服务器可据此放弃来不及完成的生成
      * @param request 聊天请求对象
      * @return 聊天响应
      */
     @Streaming
     @POST("chat/stream")
-    Call<ResponseBody> chat(@Header("Authorization") String authHeader, @Body ChatRequest request);
+    Call<ResponseBody> chat(
+            @Header("Authorization") String authHeader,
+            @Header("X-Request-ID") String requestId,
+            @Header("X-Resume-Offset") Long resumeOffset,
+            @Header("X-Deadline-Ms") Long deadlineMs,
+            @Body ChatRequest request);
 }
\ No newline at end of file
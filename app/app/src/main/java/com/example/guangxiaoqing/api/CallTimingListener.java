@@ -0,0 +1,124 @@
+package com.example.guangxiaoqing.api;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * 记录每个请求各阶段耗时的事件监听器
+ * 建连耗时、首字节耗时和下载速率交给DeadlineManager用于计算之后请求的超时；
+ * 开启日志时，请求结束时输出一行带关联ID的汇总日志，可以和后端日志按X-Request-ID对齐：
+ * 建连耗时、首字节耗时（服务器处理时间）和总耗时（流式回答为整个回答的时长）
+ */
+public class CallTimingListener extends EventListener {
+    private static final String TAG = "CallTiming";
+
+    private final String requestId;
+    private final EndpointPolicy policy;
+    private final DeadlineManager deadlines;
+    private final boolean log;
+    private final long callStartNs = System.nanoTime();
+    private long connectStartNs = -1;
+    private long connectMs = -1;
+    private long requestSentNs = -1;
+    private long firstByteMs = -1;
+    private long headersReceivedNs = -1;
+
+    CallTimingListener(String requestId, EndpointPolicy policy, DeadlineManager deadlines, boolean log) {
+        this.requestId = requestId;
+        this.policy = policy;
+        this.deadlines = deadlines;
+        this.log = log;
+    }
+
+    /**
+     * @param deadlines 接收耗时样本的超时管理器
+     * @param log 是否输出耗时日志
+     */
+    public static Factory factory(DeadlineManager deadlines, boolean log) {
+        return call -> new CallTimingListener(CorrelationId.of(call.request()),
+                EndpointPolicy.forRequest(call.request()), deadlines, log);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        connectStartNs = System.nanoTime();
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        connectMs = elapsedMs(connectStartNs);
+        deadlines.recordConnect(connectMs);
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, okhttp3.Request request) {
+        requestSentNs = System.nanoTime();
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+        requestSentNs = System.nanoTime();
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        if (firstByteMs < 0 && requestSentNs > 0) {
+            firstByteMs = elapsedMs(requestSentNs);
+            deadlines.recordFirstByte(policy, firstByteMs);
+        }
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+        headersReceivedNs = System.nanoTime();
+        if (!log) {
+            return;
+        }
+        Log.d(TAG, "[" + requestId + "] 响应头到达: code=" + response.code()
+                + ", 首字节=" + firstByteMs + "ms, 已用时=" + elapsedMs(callStartNs) + "ms");
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        // 流式回答的时长取决于生成速度，不代表网络速率
+        if (policy != EndpointPolicy.CHAT_STREAM && headersReceivedNs > 0) {
+            deadlines.recordDownload(byteCount, elapsedMs(headersReceivedNs));
+        }
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        if (!log) {
+            return;
+        }
+        Log.d(TAG, "[" + requestId + "] 请求完成: " + summary(call));
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        if (!log) {
+            return;
+        }
+        Log.d(TAG, "[" + requestId + "] 请求失败: " + summary(call) + ", 错误=" + ioe);
+    }
+
+    private String summary(Call call) {
+        return call.request().method() + " " + call.request().url().encodedPath()
+                + ", 建连=" + (connectMs >= 0 ? connectMs + "ms" : "复用连接")
+                + ", 首字节=" + firstByteMs + "ms"
+                + ", 总耗时=" + elapsedMs(callStartNs) + "ms";
+    }
+
+    private static long elapsedMs(long startNs) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.guangxiaoqing.api;
+
+import android.util.Log;
+
+import com.example.guangxiaoqing.model.ChatMessage;
+import com.example.guangxiaoqing.model.ChatRequest;
+
+import java.util.List;
+
+/**
+ * 聊天会话状态，实现增量会话协议
+ * 第一轮（或会话失效后）完整上传历史消息；支持会话的服务器在响应头X-Conversation-ID中返回会话ID，
+ * 之后每轮只发送新问题、会话ID和轮次序号，请求大小不随对话长度增长；
+ * 服务器返回409或410表示会话不存在、已过期或轮次不一致，此时丢弃会话ID并改为完整上传；
+ * 不返回会话ID的旧服务器始终使用完整上传
+ */
+public class ChatConversation {
+    private static final String TAG = "ChatConversation";
+    // 服务器返回会话ID的响应头
+    public static final String HEADER_CONVERSATION_ID = "X-Conversation-ID";
+
+    private String conversationId;
+    // 服务器已确认完成的轮数
+    private int completedTurns = 0;
+
+    /**
+     * 为新的一轮问答创建请求
+     * @param content 本轮问题
+     * @param history 完整的历史消息，会话可用时不上传，只在需要完整上传时使用
+     * @return 本轮请求
+     */
+    public synchronized Turn newTurn(String content, List<ChatMessage> history) {
+        return new Turn(content, history, conversationId != null
+                ? ChatRequest.delta(content, conversationId, completedTurns + 1)
+                : fullRequest(content, history));
+    }
+
+    /**
+     * 清空聊天记录时调用，下一轮重新完整上传
+     */
+    public synchronized void reset() {
+        conversationId = null;
+        completedTurns = 0;
+    }
+
+    public synchronized String getConversationId() {
+        return conversationId;
+    }
+
+    private ChatRequest fullRequest(String content, List<ChatMessage> history) {
+        // 完整上传时服务器根据历史重建会话，轮次序号为历史中的问题数加一
+        int userTurns = 0;
+        if (history != null) {
+            for (ChatMessage message : history) {
+                if ("user".equals(message.getRole())) {
+                    userTurns++;
+                }
+            }
+        }
+        ChatRequest request = new ChatRequest(content, history);
+        request.setTurnSeq(userTurns + 1);
+        return request;
+    }
+
+    private synchronized void onAccepted(String newConversationId) {
+        if (newConversationId == null || newConversationId.isEmpty()) {
+            // 服务器不支持会话，继续完整上传
+            conversationId = null;
+        } else if (!newConversationId.equals(conversationId)) {
+            Log.d(TAG, "服务器建立会话: " + newConversationId);
+            conversationId = newConversationId;
+        }
+    }
+
+    private synchronized void onComplete(int turnSeq) {
+        // 完整上传时历史可能被截断，以服务器确认的本轮序号为准
+        completedTurns = turnSeq;
+    }
+
+    private synchronized void invalidate(String expiredConversationId) {
+        if (expiredConversationId.equals(conversationId)) {
+            conversationId = null;
+        }
+    }
+
+    /**
+     * 一轮问答的请求，会话失效时可以改为完整上传
+     */
+    public class Turn {
+        private final String content;
+        private final List<ChatMessage> history;
+        private volatile ChatRequest request;
+
+        private Turn(String content, List<ChatMessage> history, ChatRequest request) {
+            this.content = content;
+            this.history = history;
+            this.request = request;
+        }
+
+        public ChatRequest getRequest() {
+            return request;
+        }
+
+        /**
+         * 是否为只包含本轮问题的增量请求
+         */
+        public boolean isDelta() {
+            return request.getConversationId() != null;
+        }
+
+        /**
+         * 服务器报告会话不存在或已过期时改为完整上传
+         * @return false表示已经是完整请求，无法回退
+         */
+        public boolean fallbackToFull() {
+            ChatRequest current = request;
+            if (current.getConversationId() == null) {
+                return false;
+            }
+            invalidate(current.getConversationId());
+            synchronized (ChatConversation.this) {
+                request = fullRequest(content, history);
+            }
+            return true;
+        }
+
+        /**
+         * 服务器接受了请求
+         * @param conversationId 响应头中的会话ID，旧服务器为null
+         */
+        public void onAccepted(String conversationId) {
+            ChatConversation.this.onAccepted(conversationId);
+        }
+
+        /**
+         * 回答已完整接收，服务器的会话中已包含本轮
+         */
+        public void onComplete() {
+            Integer turnSeq = request.getTurnSeq();
+            if (turnSeq != null) {
+                ChatConversation.this.onComplete(turnSeq);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.guangxiaoqing.api;
+
+import java.io.IOException;
+
+/**
+ * 聊天流事件的增量解析器
+ * 每次接收到解码后的文本就调用feed，解析出的完整事件立即交给监听器
+ */
+public interface ChatEventParser {
+    // NDJSON格式的事件流
+    String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+    // 优先请求NDJSON，旧服务器仍可返回纯文本
+    String ACCEPT = NDJSON_MEDIA_TYPE + ", text/plain;q=0.5";
+
+    interface Listener {
+        void onEvent(ChatStreamEvent event);
+    }
+
+    /**
+     * 解析一段文本
+     * @throws IOException 事件格式错误时抛出
+     */
+    void feed(String text, Listener listener) throws IOException;
+
+    /**
+     * 响应体读取完毕时调用，交付剩余内容
+     */
+    void finish(Listener listener) throws IOException;
+
+    /**
+     * 已交付事件对应的响应体字符数（按Unicode码点计数），作为续传位置
+     */
+    long committedLength();
+
+    /**
+     * 丢弃尚未组成完整事件的内容，续传时服务器会从committedLength处重新发送
+     */
+    void dropUncommitted();
+
+    /**
+     * 流是否已正常结束；NDJSON流必须以done或error事件结束，否则视为连接中断
+     */
+    boolean isComplete();
+
+    /**
+     * 根据响应的Content-Type选择解析器
+     */
+    static ChatEventParser forContentType(String contentType) {
+        if (contentType != null && contentType.startsWith(NDJSON_MEDIA_TYPE)) {
+            return new NdjsonEventParser();
+        }
+        return new PlainTextEventParser();
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.guangxiaoqing.api;
+
+import com.example.guangxiaoqing.model.ChatSource;
+import com.example.guangxiaoqing.model.ChatUsage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * 把一次聊天回答分发给多个调用方
+ * 累积已收到的回答、思考过程和来源，后加入的调用方先收到一次合并的回放；
+ * 回答结束（完成、出错）或所有调用方都已取消后关闭，不再接受新的调用方
+ */
+class ChatFanout implements ChatStreamCallback {
+    private final Consumer<ChatFanout> onClosed;
+    private final List<ChatStreamCallback> subscribers = new ArrayList<>();
+    private String requestId = "-";
+    private ChatStreamHandle upstream;
+    // 不再接受新的调用方
+    private boolean closed = false;
+    // 所有调用方都在回答结束前取消了，底层请求需要取消
+    private boolean abandoned = false;
+
+    // 已发生事件的累积结果，用于回放
+    private boolean started = false;
+    private final StringBuilder answer = new StringBuilder();
+    private final StringBuilder thinking = new StringBuilder();
+    private List<ChatSource> sources;
+    private boolean done = false;
+    private ChatUsage usage;
+
+    /**
+     * @param onClosed 关闭时在关闭的线程中同步执行，用于从进行中的请求中移除
+     */
+    ChatFanout(Consumer<ChatFanout> onClosed) {
+        this.onClosed = onClosed;
+    }
+
+    synchronized String getRequestId() {
+        return requestId;
+    }
+
+    synchronized void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+
+    /**
+     * 绑定底层会话的取消句柄，调用方已经全部取消时立即取消
+     */
+    void setUpstream(ChatStreamHandle handle) {
+        boolean cancelNow;
+        synchronized (this) {
+            upstream = handle;
+            cancelNow = abandoned;
+        }
+        if (cancelNow) {
+            handle.cancel();
+        }
+    }
+
+    /**
+     * 加入一个调用方，先回放已收到的内容
+     * @return 该调用方的取消句柄，已关闭时返回null
+     */
+    synchronized ChatStreamHandle subscribe(ChatStreamCallback callback, Executor callbackExecutor) {
+        if (closed) {
+            return null;
+        }
+        if (started) {
+            callback.onStart(requestId);
+        }
+        if (thinking.length() > 0) {
+            callback.onThinking(thinking.toString());
+        }
+        if (sources != null) {
+            callback.onSources(sources);
+        }
+        if (answer.length() > 0) {
+            callback.onSuccess(answer.toString());
+        }
+        if (done) {
+            callback.onDone(usage);
+        }
+        subscribers.add(callback);
+        return new ChatStreamHandle(requestId, () -> unsubscribe(callback, callbackExecutor));
+    }
+
+    private void unsubscribe(ChatStreamCallback callback, Executor callbackExecutor) {
+        ChatStreamHandle toCancel = null;
+        boolean closeNow = false;
+        synchronized (this) {
+            if (subscribers.remove(callback) && subscribers.isEmpty() && !closed) {
+                // 最后一个调用方离开：立即关闭，之后问同一个问题的调用方会发送新请求
+                closed = true;
+                abandoned = true;
+                closeNow = true;
+                toCancel = upstream;
+            }
+        }
+        if (closeNow) {
+            onClosed.accept(this);
+        }
+        callbackExecutor.execute(callback::onCancelled);
+        if (toCancel != null) {
+            toCancel.cancel();
+        }
+    }
+
+    /**
+     * 更新累积结果并通知当前的调用方
+     * @param record 在锁内更新累积结果
+     */
+    private void emit(Consumer<ChatStreamCallback> event, boolean terminal, Runnable record) {
+        List<ChatStreamCallback> targets;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            record.run();
+            closed = terminal;
+            targets = new ArrayList<>(subscribers);
+        }
+        if (terminal) {
+            // 先移除再通知，调用方收到结束事件后再问同一个问题会发送新请求
+            onClosed.accept(this);
+        }
+        for (ChatStreamCallback target : targets) {
+            event.accept(target);
+        }
+    }
+
+    @Override
+    public void onStart(String requestId) {
+        emit(callback -> callback.onStart(requestId), false, () -> started = true);
+    }
+
+    @Override
+    public void onSuccess(String response) {
+        emit(callback -> callback.onSuccess(response), false, () -> answer.append(response));
+    }
+
+    @Override
+    public void onThinking(String text) {
+        emit(callback -> callback.onThinking(text), false, () -> thinking.append(text));
+    }
+
+    @Override
+    public void onSources(List<ChatSource> sources) {
+        emit(callback -> callback.onSources(sources), false, () -> this.sources = sources);
+    }
+
+    @Override
+    public void onDone(ChatUsage usage) {
+        emit(callback -> callback.onDone(usage), false, () -> {
+            done = true;
+            this.usage = usage;
+        });
+    }
+
+    @Override
+    public void onRestart() {
+        // 已显示的部分作废，后加入的调用方只需要收到重新发送的回答
+        emit(ChatStreamCallback::onRestart, false, () -> {
+            answer.setLength(0);
+            thinking.setLength(0);
+            sources = null;
+        });
+    }
+
+    @Override
+    public void onComplete() {
+        emit(ChatStreamCallback::onComplete, true, () -> { });
+    }
+
+    @Override
+    public void onError(String errorMessage) {
+        emit(callback -> callback.onError(errorMessage), true, () -> { });
+    }
+
+    @Override
+    public void onCancelled() {
+        // 只有所有调用方都取消后底层才会取消，此时已经关闭，没有需要通知的调用方
+        emit(callback -> { }, true, () -> { });
+    }
+}
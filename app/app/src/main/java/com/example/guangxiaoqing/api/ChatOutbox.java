@@ -0,0 +1,406 @@
+package com.example.guangxiaoqing.api;
+
+import android.util.Log;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 离线待发送的聊天问题
+ * 没有网络时问题保存到文件中，应用被关闭后也不会丢失；网络恢复后按提问顺序逐个发送，
+ * 一次发送完队列中的所有问题（后一个问题的历史包含前一个问题的回答，因此不能并发发送）；
+ * 发送失败时停止，按指数退避等待后再试，网络重新连接时立即重试
+ * 内存中的队列是唯一依据，文件只在后台线程中读写，连续的修改合并为一次写入；
+ * 文件在后台读取，恢复完成前加入的问题排在恢复的问题之后，发送也等到恢复完成后才开始
+ * 每个用户使用单独的文件，切换账号后不会发送其他账号的问题
+ */
+public class ChatOutbox {
+    private static final String TAG = "ChatOutbox";
+    // 保存在应用私有目录中的文件名前缀
+    private static final String FILE_PREFIX = "chat_outbox_";
+    // 第一次重试的等待时间
+    static final long INITIAL_BACKOFF_MS = 2_000;
+    // 重试等待时间上限
+    static final long MAX_BACKOFF_MS = 5 * 60_000;
+
+    /**
+     * 延迟执行任务，Android上由主线程Handler实现
+     */
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMs);
+    }
+
+    /**
+     * 发送一个问题，回答完整接收后调用onSuccess，需要稍后重试时调用onError
+     */
+    public interface Sender {
+        void send(Entry entry, NetworkCallback<Void> result);
+    }
+
+    /**
+     * 从文件恢复完成，通过Scheduler在主线程中调用
+     */
+    public interface RestoreListener {
+        void onRestored(List<Entry> restored);
+    }
+
+    // 所有队列共用的文件读写线程，保证同一文件的读写按顺序进行
+    private static ExecutorService ioExecutor;
+
+    private final File file;
+    private final Scheduler scheduler;
+    private final Executor fileExecutor;
+    private final RestoreListener restoreListener;
+    private final List<Entry> entries = new ArrayList<>();
+    // 等待写入文件的队列内容，为null表示没有等待中的写入
+    private List<Entry> unsaved;
+    private Sender sender;
+    private boolean flushing = false;
+    private long backoffMs = INITIAL_BACKOFF_MS;
+    // 每次重新开始发送时递增，使之前安排的重试失效
+    private int generation = 0;
+    private boolean closed = false;
+    // 文件中的问题已经恢复到队列中
+    private boolean restored = false;
+    // 恢复完成前队列被清空，文件中的问题不再恢复
+    private boolean discardRestored = false;
+
+    /**
+     * @param file 保存待发送问题的文件，不存在时为空队列
+     * @param scheduler 重试调度，也用于在主线程中通知恢复结果
+     * @param restoreListener 从文件恢复完成后调用
+     */
+    public ChatOutbox(File file, Scheduler scheduler, RestoreListener restoreListener) {
+        this(file, scheduler, restoreListener, getIoExecutor());
+    }
+
+    /**
+     * @param file 保存待发送问题的文件，不存在时为空队列
+     * @param scheduler 重试调度，也用于在主线程中通知恢复结果
+     * @param restoreListener 从文件恢复完成后调用
+     * @param fileExecutor 读写文件的执行器，应按提交顺序执行
+     */
+    ChatOutbox(File file, Scheduler scheduler, RestoreListener restoreListener, Executor fileExecutor) {
+        this.file = file;
+        this.scheduler = scheduler;
+        this.restoreListener = restoreListener;
+        this.fileExecutor = fileExecutor;
+        // 在读写线程中读取，之前的队列对象还没写完的内容会先写入文件
+        fileExecutor.execute(() -> {
+            List<Entry> loaded = load();
+            scheduler.schedule(() -> onLoaded(loaded), 0);
+        });
+    }
+
+    /**
+     * 用户的待发送队列文件名，手机号只保留数字
+     * @param userPhone 登录用户的手机号
+     */
+    public static String fileName(String userPhone) {
+        return FILE_PREFIX + userPhone.replaceAll("[^0-9]", "") + ".json";
+    }
+
+    private static synchronized ExecutorService getIoExecutor() {
+        if (ioExecutor == null) {
+            ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "chat-outbox");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return ioExecutor;
+    }
+
+    /**
+     * 加入一个待发送的问题，并在后台保存
+     * @param content 问题内容
+     * @return 队列中的条目
+     */
+    public synchronized Entry enqueue(String content) {
+        Entry entry = new Entry(UUID.randomUUID().toString(), content, System.currentTimeMillis());
+        entries.add(entry);
+        save();
+        Log.d(TAG, "网络不可用，问题加入待发送队列，共" + entries.size() + "个");
+        return entry;
+    }
+
+    /**
+     * 待发送的问题，按提问顺序
+     */
+    public synchronized List<Entry> pending() {
+        return new ArrayList<>(entries);
+    }
+
+    /**
+     * 队列是否为空，恢复完成前返回false，此时提问应加入队列排在恢复的问题之后
+     */
+    public synchronized boolean isEmpty() {
+        return restored && entries.isEmpty();
+    }
+
+    /**
+     * 清空队列（清空聊天记录、退出登录时调用）
+     */
+    public synchronized void clear() {
+        discardRestored = !restored;
+        entries.clear();
+        generation++;
+        flushing = false;
+        save();
+    }
+
+    /**
+     * 停止发送，之后安排的重试不再执行（页面销毁时调用），队列保留在文件中
+     */
+    public synchronized void close() {
+        closed = true;
+        generation++;
+    }
+
+    /**
+     * 网络恢复：重置退避时间并立即发送队列中的问题
+     * @param sender 发送方式
+     */
+    public void onNetworkAvailable(Sender sender) {
+        synchronized (this) {
+            backoffMs = INITIAL_BACKOFF_MS;
+            if (!flushing) {
+                // 取消等待中的重试，由本次发送代替
+                generation++;
+            }
+        }
+        flush(sender);
+    }
+
+    /**
+     * 按顺序发送队列中的问题，已经在发送时不重复发送
+     * @param sender 发送方式
+     */
+    public void flush(Sender sender) {
+        Entry next;
+        int flushGeneration;
+        synchronized (this) {
+            this.sender = sender;
+            // 恢复完成前不发送，保证较早的问题先发出
+            if (flushing || closed || !restored || entries.isEmpty()) {
+                return;
+            }
+            flushing = true;
+            next = entries.get(0);
+            flushGeneration = generation;
+        }
+        Log.d(TAG, "发送待发送的问题: " + next.getId());
+        sender.send(next, new NetworkCallback<Void>() {
+            @Override
+            public void onSuccess(Void response) {
+                synchronized (ChatOutbox.this) {
+                    if (flushGeneration != generation) {
+                        return;
+                    }
+                    entries.remove(next);
+                    save();
+                    backoffMs = INITIAL_BACKOFF_MS;
+                    flushing = false;
+                }
+                // 继续发送下一个
+                flush(sender);
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                long delay;
+                synchronized (ChatOutbox.this) {
+                    if (flushGeneration != generation) {
+                        return;
+                    }
+                    flushing = false;
+                    delay = RetryBackoff.jitter(backoffMs);
+                    backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+                }
+                Log.d(TAG, "发送失败，" + delay + "ms后重试: " + errorMessage);
+                scheduler.schedule(() -> retry(flushGeneration), delay);
+            }
+        });
+    }
+
+    private void retry(int scheduledGeneration) {
+        Sender current;
+        synchronized (this) {
+            if (scheduledGeneration != generation) {
+                return;
+            }
+            current = sender;
+        }
+        flush(current);
+    }
+
+    /**
+     * 恢复的问题排在恢复期间加入的问题之前，恢复完成后开始发送
+     */
+    private void onLoaded(List<Entry> loaded) {
+        Sender pendingSender;
+        synchronized (this) {
+            if (discardRestored) {
+                loaded.clear();
+            }
+            restored = true;
+            if (!loaded.isEmpty()) {
+                boolean modified = !entries.isEmpty();
+                entries.addAll(0, loaded);
+                if (modified) {
+                    // 恢复期间的写入只包含新加入的问题，重新保存完整的队列
+                    save();
+                }
+            }
+            if (closed) {
+                return;
+            }
+            pendingSender = sender;
+        }
+        restoreListener.onRestored(loaded);
+        if (pendingSender != null) {
+            flush(pendingSender);
+        }
+    }
+
+    /**
+     * 在读写线程中读取文件
+     * @return 文件中的问题，文件不存在或损坏时为空
+     */
+    private List<Entry> load() {
+        List<Entry> loaded = new ArrayList<>();
+        if (!file.exists()) {
+            return loaded;
+        }
+        try (JsonReader in = new JsonReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            in.beginArray();
+            while (in.hasNext()) {
+                String id = null;
+                String content = null;
+                long createdAt = 0;
+                in.beginObject();
+                while (in.hasNext()) {
+                    String name = in.nextName();
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        continue;
+                    }
+                    switch (name) {
+                        case "id":
+                            id = in.nextString();
+                            break;
+                        case "content":
+                            content = in.nextString();
+                            break;
+                        case "created_at":
+                            createdAt = in.nextLong();
+                            break;
+                        default:
+                            in.skipValue();
+                            break;
+                    }
+                }
+                in.endObject();
+                if (id != null && content != null) {
+                    loaded.add(new Entry(id, content, createdAt));
+                }
+            }
+            in.endArray();
+            Log.d(TAG, "恢复待发送的问题" + loaded.size() + "个");
+        } catch (IOException | IllegalStateException e) {
+            // 文件损坏时丢弃，不影响聊天
+            Log.e(TAG, "读取待发送队列失败", e);
+            loaded.clear();
+        }
+        return loaded;
+    }
+
+    /**
+     * 安排在后台保存当前队列，调用方需持有锁
+     * 还有等待中的写入时只更新要写入的内容，由那次写入保存最新的队列
+     */
+    private void save() {
+        boolean scheduled = unsaved != null;
+        unsaved = new ArrayList<>(entries);
+        if (!scheduled) {
+            fileExecutor.execute(this::writeUnsaved);
+        }
+    }
+
+    private void writeUnsaved() {
+        List<Entry> snapshot;
+        synchronized (this) {
+            snapshot = unsaved;
+            unsaved = null;
+        }
+        if (snapshot != null) {
+            write(snapshot);
+        }
+    }
+
+    /**
+     * 先写临时文件再替换，写到一半被关闭时不会损坏原文件，在读写线程中执行
+     */
+    private void write(List<Entry> snapshot) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (JsonWriter out = new JsonWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+            out.beginArray();
+            for (Entry entry : snapshot) {
+                out.beginObject();
+                out.name("id").value(entry.getId());
+                out.name("content").value(entry.getContent());
+                out.name("created_at").value(entry.getCreatedAt());
+                out.endObject();
+            }
+            out.endArray();
+        } catch (IOException e) {
+            Log.e(TAG, "保存待发送队列失败", e);
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "保存待发送队列失败: 无法替换" + file);
+        }
+    }
+
+    /**
+     * 一个待发送的问题
+     */
+    public static class Entry {
+        private final String id;
+        private final String content;
+        private final long createdAt;
+
+        Entry(String id, String content, long createdAt) {
+            this.id = id;
+            this.content = content;
+            this.createdAt = createdAt;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+    }
+}
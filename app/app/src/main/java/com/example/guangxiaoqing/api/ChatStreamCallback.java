@@ -0,0 +1,56 @@
+package com.example.guangxiaoqing.api;
+
+import com.example.guangxiaoqing.model.ChatSource;
+import com.example.guangxiaoqing.model.ChatUsage;
+
+import java.util.List;
+
+/**
+ * 聊天流式响应回调接口
+ * onSuccess会在每段回答文本到达时回调（不包含思考过程），其他事件通过以下方法回调
+ */
+public interface ChatStreamCallback extends NetworkCallback<String> {
+    /**
+     * 回答开始，在调用方线程中同步回调
+     * @param requestId 本次回答的关联ID，与请求头X-Request-ID和网络层日志一致
+     */
+    default void onStart(String requestId) {
+    }
+
+    /**
+     * 思考过程片段，不需要显示时可以忽略
+     */
+    default void onThinking(String text) {
+    }
+
+    /**
+     * 回答引用的参考来源
+     */
+    default void onSources(List<ChatSource> sources) {
+    }
+
+    /**
+     * 服务端标记回答结束
+     * @param usage token用量，服务端未提供时为null
+     */
+    default void onDone(ChatUsage usage) {
+    }
+
+    /**
+     * 回答已完整接收
+     */
+    default void onComplete() {
+    }
+
+    /**
+     * 回答被取消（用户离开、清空记录或发送了新问题）
+     */
+    default void onCancelled() {
+    }
+
+    /**
+     * 连接中断后服务器无法续传，回答将从头重新发送，界面应丢弃已显示的部分
+     */
+    default void onRestart() {
+    }
+}
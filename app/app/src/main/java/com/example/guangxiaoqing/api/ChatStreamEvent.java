@@ -0,0 +1,89 @@
+package com.example.guangxiaoqing.api;
+
+import com.example.guangxiaoqing.model.ChatSource;
+import com.example.guangxiaoqing.model.ChatUsage;
+
+import java.util.List;
+
+/**
+ * 聊天流中的一个事件
+ * NDJSON格式下每行一个事件，例如：
+ * {"type":"answer","text":"你好"}
+ * {"type":"sources","sources":[{"title":"学生手册","url":"..."}]}
+ * {"type":"done","usage":{"prompt_tokens":120,"completion_tokens":80,"total_tokens":200}}
+ */
+public class ChatStreamEvent {
+
+    public enum Type {
+        // 思考过程片段，界面默认不显示
+        THINK,
+        // 回答片段
+        ANSWER,
+        // 参考来源
+        SOURCES,
+        // 心跳，只用于保持连接
+        HEARTBEAT,
+        // 回答结束，携带token用量
+        DONE,
+        // 服务端错误
+        ERROR
+    }
+
+    private final Type type;
+    private final String text;
+    private final List<ChatSource> sources;
+    private final ChatUsage usage;
+
+    private ChatStreamEvent(Type type, String text, List<ChatSource> sources, ChatUsage usage) {
+        this.type = type;
+        this.text = text;
+        this.sources = sources;
+        this.usage = usage;
+    }
+
+    public static ChatStreamEvent think(String text) {
+        return new ChatStreamEvent(Type.THINK, text, null, null);
+    }
+
+    public static ChatStreamEvent answer(String text) {
+        return new ChatStreamEvent(Type.ANSWER, text, null, null);
+    }
+
+    public static ChatStreamEvent sources(List<ChatSource> sources) {
+        return new ChatStreamEvent(Type.SOURCES, null, sources, null);
+    }
+
+    public static ChatStreamEvent heartbeat() {
+        return new ChatStreamEvent(Type.HEARTBEAT, null, null, null);
+    }
+
+    public static ChatStreamEvent done(ChatUsage usage) {
+        return new ChatStreamEvent(Type.DONE, null, null, usage);
+    }
+
+    public static ChatStreamEvent error(String message) {
+        return new ChatStreamEvent(Type.ERROR, message, null, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * THINK/ANSWER的文本片段，ERROR的错误信息
+     */
+    public String getText() {
+        return text;
+    }
+
+    public List<ChatSource> getSources() {
+        return sources;
+    }
+
+    /**
+     * DONE事件的token用量，服务端未提供时为null
+     */
+    public ChatUsage getUsage() {
+        return usage;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.guangxiaoqing.api;
+
+import android.util.Log;
+
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+
+/**
+ * 一次聊天回答的取消句柄
+ * 取消时中止当前的HTTP请求、关闭尚未开始读取的响应体，并阻止后续重试和回调
+ */
+public class ChatStreamHandle {
+    private static final String TAG = "ChatStreamHandle";
+
+    private final String requestId;
+    private final Runnable onCancelled;
+    private boolean cancelled = false;
+    private boolean readerStarted = false;
+    private Call<ResponseBody> call;
+    private ResponseBody body;
+
+    ChatStreamHandle(String requestId, Runnable onCancelled) {
+        this.requestId = requestId;
+        this.onCancelled = onCancelled;
+    }
+
+    /**
+     * 本次回答的关联ID，与请求头X-Request-ID和各处日志一致
+     */
+    public String getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * 取消本次回答，可以重复调用
+     */
+    public void cancel() {
+        Call<ResponseBody> callToCancel;
+        ResponseBody bodyToClose = null;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            callToCancel = call;
+            // 读取线程已经开始时由它在结束时关闭响应体，避免跨线程关闭正在读取的source
+            if (!readerStarted) {
+                bodyToClose = body;
+            }
+        }
+
+        Log.d(TAG, "[" + requestId + "] 取消聊天回答");
+        if (callToCancel != null) {
+            // 中止请求会关闭底层连接，阻塞中的读取会立即抛出IOException
+            callToCancel.cancel();
+        }
+        if (bodyToClose != null) {
+            bodyToClose.close();
+        }
+        onCancelled.run();
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 绑定当前尝试的请求，已取消时直接中止新请求
+     */
+    void attachCall(Call<ResponseBody> newCall) {
+        synchronized (this) {
+            if (!cancelled) {
+                call = newCall;
+                body = null;
+                readerStarted = false;
+                return;
+            }
+        }
+        newCall.cancel();
+    }
+
+    /**
+     * 绑定收到的响应体，已取消时直接关闭
+     */
+    void attachBody(ResponseBody responseBody) {
+        synchronized (this) {
+            if (!cancelled) {
+                body = responseBody;
+                return;
+            }
+        }
+        responseBody.close();
+    }
+
+    /**
+     * 读取线程开始读取前调用
+     * @return false表示已取消，不应再读取
+     */
+    synchronized boolean startReading() {
+        if (cancelled) {
+            return false;
+        }
+        readerStarted = true;
+        return true;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.guangxiaoqing.api;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Timeout;
+
+/**
+ * 聊天流式响应读取器
+ * 阻塞等待真实数据到达，流结束由传输层自身报告（分块传输结束或连接关闭时read返回-1），
+ * 超时只由一个空闲超时和一个总截止时间控制，均交给okio的Timeout处理；
+ * 两者由调用方根据DeadlineManager和EndpointPolicy.CHAT_STREAM给出，与请求本身的读取超时一致
+ */
+public class ChatStreamReader {
+    private static final String TAG = "ChatStreamReader";
+
+    // 单次读取的最大字节数（一个okio段的大小）
+    private static final long SEGMENT_SIZE = 8192;
+
+    /**
+     * 文本到达监听器，在读取线程中回调
+     */
+    public interface Listener {
+        void onText(String text) throws IOException;
+    }
+
+    private final String requestId;
+    private final long idleTimeoutMs;
+    private final long totalTimeoutMs;
+
+    /**
+     * @param requestId 关联ID，用于读取线程中的日志
+     * @param idleTimeoutMs 两次数据到达之间允许的最长空闲时间
+     * @param totalTimeoutMs 读取整个响应体允许的最长时间
+     */
+    public ChatStreamReader(String requestId, long idleTimeoutMs, long totalTimeoutMs) {
+        this.requestId = requestId;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.totalTimeoutMs = totalTimeoutMs;
+    }
+
+    /**
+     * 读取整个响应体直到流结束
+     * 超时会以InterruptedIOException（或其子类SocketTimeoutException）抛出
+     * @param source 响应体source
+     * @param listener 文本监听器
+     * @return 总共接收的字符数
+     */
+    public long read(BufferedSource source, Listener listener) throws IOException {
+        Timeout timeout = source.timeout();
+        timeout.timeout(idleTimeoutMs, TimeUnit.MILLISECONDS);
+        timeout.deadline(totalTimeoutMs, TimeUnit.MILLISECONDS);
+
+        Utf8ChunkDecoder decoder = new Utf8ChunkDecoder();
+        Buffer chunk = new Buffer();
+        long charCount = 0;
+        long chunkCount = 0;
+        try {
+            // read会阻塞到有数据到达，返回-1表示传输层报告流已结束
+            while (source.read(chunk, SEGMENT_SIZE) != -1) {
+                String text = decoder.decode(chunk);
+                if (!text.isEmpty()) {
+                    chunkCount++;
+                    charCount += text.length();
+                    listener.onText(text);
+                }
+            }
+
+            // 输出末尾剩余的字节
+            String tail = decoder.finish();
+            if (!tail.isEmpty()) {
+                charCount += tail.length();
+                listener.onText(tail);
+            }
+        } finally {
+            timeout.clearDeadline();
+            Log.d(TAG, "[" + requestId + "] 读取结束: " + chunkCount + "段, " + charCount + "个字符");
+        }
+        return charCount;
+    }
+}
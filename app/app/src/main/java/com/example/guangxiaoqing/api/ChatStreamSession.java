@@ -0,0 +1,398 @@
+package com.example.guangxiaoqing.api;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * 一次聊天回答的流式会话
+ * 负责发送请求、读取流式响应，并在连接中断后从已接收的位置续传，而不是重新生成整个回答
+ *
+ * 响应可以是NDJSON事件流或旧版纯文本，由ChatEventParser按Content-Type解析为事件
+ *
+ * 每次回答使用一个CorrelationId，所有尝试、读取线程的日志、计时和界面回调都以它关联；
+ * 续传协议：每次尝试都通过X-Resume-Offset告知服务器已处理的响应字符数（首次为0），
+ * 支持续传的服务器在响应头中原样返回该偏移量并只发送剩余部分
+ *
+ * 聊天请求不是幂等的，重发会让服务器再生成一次回答，因此只在两种情况下重发：
+ * 请求没有到达服务器（连接失败、被限流或服务不可用），或者本次回答的响应已确认支持续传；
+ * 已确认支持续传但重连时没有返回偏移量（例如服务器重启丢失了回答），通过onRestart通知界面丢弃已显示的部分
+ */
+public class ChatStreamSession {
+    private static final String TAG = "ChatStreamSession";
+    // 续传偏移量请求头/响应头
+    public static final String HEADER_RESUME_OFFSET = "X-Resume-Offset";
+    // 默认最多重试2次
+    public static final int DEFAULT_MAX_RETRIES = 2;
+
+    private final ApiService apiService;
+    private final String authHeader;
+    private final ChatConversation.Turn turn;
+    private final ChatStreamCallback callback;
+    private final Executor callbackExecutor;
+    private final FrameCoalescer coalescer;
+    private final Runnable onUnauthorized;
+    private final ChatStreamHandle handle;
+    private final String requestId;
+    // 回答开始时间，用于记录首字和总耗时
+    private final long startNs = System.nanoTime();
+    private volatile boolean firstTextLogged = false;
+
+    // 当前回答的事件解析器，续传时沿用以保持思考标签等状态
+    private volatile ChatEventParser parser;
+    // 服务端已通过error事件报告失败
+    private volatile boolean serverErrorReported = false;
+    // 服务器已在响应头中确认可以续传本次回答，中断后重连不会重新生成
+    private volatile boolean resumeConfirmed = false;
+    private volatile int retriesLeft = DEFAULT_MAX_RETRIES;
+    private final RetryBudget retryBudget;
+    private final DeadlineManager deadlines;
+
+    /**
+     * @param apiService API服务接口
+     * @param authHeader 认证头，为null时直接报告未登录
+     * @param turn 本轮请求，会话失效时改为完整上传
+     * @param callback 回调接口
+     * @param callbackExecutor 回调执行器（通常是主线程）
+     * @param frameScheduler 帧调度，回答文本按帧合并后交付
+     * @param retryBudget 与其他请求共享的重试预算
+     * @param deadlines 根据实测网络状况给出读取超时
+     * @param onUnauthorized 服务器返回401时执行，用于清除登录状态
+     */
+    public ChatStreamSession(ApiService apiService, String authHeader, ChatConversation.Turn turn,
+                             ChatStreamCallback callback, Executor callbackExecutor,
+                             FrameCoalescer.FrameScheduler frameScheduler, RetryBudget retryBudget,
+                             DeadlineManager deadlines, Runnable onUnauthorized) {
+        this.apiService = apiService;
+        this.authHeader = authHeader;
+        this.turn = turn;
+        this.callback = callback;
+        this.callbackExecutor = callbackExecutor;
+        this.retryBudget = retryBudget;
+        this.deadlines = deadlines;
+        this.onUnauthorized = onUnauthorized;
+        this.requestId = CorrelationId.next();
+        this.handle = new ChatStreamHandle(requestId, () -> callbackExecutor.execute(callback::onCancelled));
+        this.coalescer = new FrameCoalescer(callbackExecutor, frameScheduler, text -> {
+            if (!handle.isCancelled()) {
+                callback.onSuccess(text);
+            }
+        });
+    }
+
+    /**
+     * 开始请求
+     * @return 本次回答的取消句柄
+     */
+    public ChatStreamHandle start() {
+        if (authHeader == null) {
+            deliver(() -> callback.onError("未登录，请先登录"));
+            return handle;
+        }
+        callback.onStart(requestId);
+        sendAttempt();
+        return handle;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    private void sendAttempt() {
+        // 已经收到部分回答时请求服务器从该位置续传
+        final long resumeOffset = parser != null ? parser.committedLength() : 0;
+        Log.d(TAG, "[" + requestId + "] 发送聊天请求: " + (turn.isDelta() ? "增量" : "完整")
+                + ", 续传位置=" + resumeOffset + ", 剩余重试次数=" + retriesLeft);
+
+        // 所有尝试共用一个总截止时间，剩余时间随请求告知服务器
+        long remainingMs = remainingMs();
+        if (remainingMs <= 0) {
+            deliver(() -> callback.onError("请求超时，服务器响应时间过长，请稍后再试"));
+            return;
+        }
+        Call<ResponseBody> chatCall = apiService.chat(authHeader, requestId, resumeOffset, remainingMs, turn.getRequest());
+        handle.attachCall(chatCall);
+        if (handle.isCancelled()) {
+            return;
+        }
+
+        chatCall.enqueue(new Callback<ResponseBody>() {
+            @Override
+            public void onResponse(Call<ResponseBody> call, Response<ResponseBody> response) {
+                Log.d(TAG, "[" + requestId + "] 收到聊天响应: code=" + response.code()
+                        + ", protocol=" + ApiClient.getProtocol(response)
+                        + ", contentType=" + response.headers().get("Content-Type"));
+                ResponseBody responseBody = response.body();
+                if (handle.isCancelled()) {
+                    // 回答已被取消，释放响应
+                    if (responseBody != null) {
+                        responseBody.close();
+                    }
+                    return;
+                }
+
+                if (!response.isSuccessful()) {
+                    handleErrorResponse(response);
+                    return;
+                }
+                if (responseBody == null) {
+                    Log.e(TAG, "[" + requestId + "] 响应体为空");
+                    deliver(() -> callback.onError("响应体为空"));
+                    return;
+                }
+
+                turn.onAccepted(response.headers().get(ChatConversation.HEADER_CONVERSATION_ID));
+                String contentType = response.headers().get("Content-Type");
+                boolean resumable = String.valueOf(resumeOffset).equals(response.headers().get(HEADER_RESUME_OFFSET));
+                if (resumable && resumeOffset > 0) {
+                    Log.d(TAG, "[" + requestId + "] 服务器接受续传，从第" + resumeOffset + "个字符继续");
+                    parser.dropUncommitted();
+                } else {
+                    if (resumeOffset > 0) {
+                        // 服务器不支持续传，重新生成的回答会从头发送，通知界面丢弃已显示的部分
+                        Log.d(TAG, "[" + requestId + "] 服务器未接受续传，回答将从头开始");
+                        deliver(callback::onRestart);
+                    }
+                    parser = ChatEventParser.forContentType(contentType);
+                }
+                resumeConfirmed = resumable;
+
+                handle.attachBody(responseBody);
+                try {
+                    StreamExecutor.execute(() -> readBody(responseBody));
+                } catch (RejectedExecutionException e) {
+                    // 并发读取和排队数量都已达到上限，直接放弃本次响应
+                    Log.e(TAG, "[" + requestId + "] 流式响应执行器已满", e);
+                    responseBody.close();
+                    deliver(() -> callback.onError("当前请求过多，请稍后再试"));
+                }
+            }
+
+            @Override
+            public void onFailure(Call<ResponseBody> call, Throwable t) {
+                if (handle.isCancelled()) {
+                    // 主动取消导致的失败不需要处理
+                    Log.d(TAG, "[" + requestId + "] 聊天请求已取消");
+                    return;
+                }
+                Log.e(TAG, "[" + requestId + "] 聊天请求失败: " + call.request().url(), t);
+
+                if (t instanceof SocketTimeoutException) {
+                    // 超时时服务器可能已经在生成回答，提供更友好的错误信息
+                    retryOrFail("请求超时，服务器响应时间过长，请稍后再试", RetryBackoff.jitter(3000), resumeConfirmed);
+                } else {
+                    // 连接没有建立时请求没有到达服务器，可以重发
+                    boolean notSent = t instanceof ConnectException || t instanceof UnknownHostException;
+                    retryOrFail("网络请求失败: " + t.getMessage(), RetryBackoff.jitter(1000), notSent || resumeConfirmed);
+                }
+            }
+        });
+    }
+
+    private void handleErrorResponse(Response<ResponseBody> response) {
+        String errorMsg = "聊天请求失败: " + response.code();
+        Log.e(TAG, "[" + requestId + "] " + errorMsg);
+
+        // 处理token失效情况，登录过期不需要重试
+        if (response.code() == 401) {
+            onUnauthorized.run();
+            deliver(() -> callback.onError("登录已过期，请重新登录"));
+            return;
+        }
+
+        // 会话不存在、已过期或轮次不一致：改为完整上传历史后立即重发，不占用重试次数
+        if ((response.code() == 409 || response.code() == 410) && turn.fallbackToFull()) {
+            Log.d(TAG, "[" + requestId + "] 服务器会话已失效，改为完整上传");
+            if (response.errorBody() != null) {
+                response.errorBody().close();
+            }
+            sendAttempt();
+            return;
+        }
+
+        try {
+            // 尝试解析错误信息
+            if (response.errorBody() != null) {
+                String errorBody = response.errorBody().string();
+                Log.e(TAG, "[" + requestId + "] 错误响应体: " + errorBody);
+                errorMsg = errorBody;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "解析错误信息失败", e);
+        }
+
+        // 限流和服务不可用表示请求没有被处理；其他服务器错误可能发生在生成途中，只有确认支持续传时才重发
+        boolean notProcessed = response.code() == 429 || response.code() == 503;
+        if (notProcessed || (response.code() >= 500 && resumeConfirmed)) {
+            // 优先遵守Retry-After，否则延迟约2秒再重试，给服务器一些恢复时间
+            long retryAfter = RetryBackoff.retryAfterMillis(response.headers());
+            if (retryAfter > RetryBackoff.MAX_RETRY_AFTER_MS) {
+                final String finalErrorMsg = errorMsg;
+                deliver(() -> callback.onError(finalErrorMsg));
+            } else if (retryAfter >= 0) {
+                retryOrFail(errorMsg, retryAfter, true);
+            } else {
+                retryOrFail(errorMsg, RetryBackoff.jitter(2000), true);
+            }
+        } else {
+            final String finalErrorMsg = errorMsg;
+            deliver(() -> callback.onError(finalErrorMsg));
+        }
+    }
+
+    /**
+     * 在流式响应执行器中读取响应体
+     */
+    private void readBody(ResponseBody responseBody) {
+        if (!handle.startReading()) {
+            Log.d(TAG, "[" + requestId + "] 回答已取消，不再读取");
+            responseBody.close();
+            return;
+        }
+        Log.d(TAG, "[" + requestId + "] 开始读取流式响应");
+
+        ChatEventParser eventParser = parser;
+        ChatEventParser.Listener listener = this::dispatch;
+        try {
+            // 阻塞读取直到传输层报告流结束，超时由读取器统一控制
+            long charCount = new ChatStreamReader(requestId, deadlines.readTimeoutMs(EndpointPolicy.CHAT_STREAM),
+                    Math.max(1, remainingMs())).read(responseBody.source(), text -> {
+                if (!firstTextLogged) {
+                    firstTextLogged = true;
+                    Log.d(TAG, "[" + requestId + "] 首个数据到达: 已用时" + elapsedMs() + "ms");
+                }
+                eventParser.feed(text, listener);
+            });
+            eventParser.finish(listener);
+            coalescer.flush();
+            Log.d(TAG, "[" + requestId + "] 流式响应读取完成，本次接收" + charCount + "个字符，累计" + eventParser.committedLength() + "个字符");
+
+            if (serverErrorReported) {
+                return;
+            }
+            if (eventParser.isComplete()) {
+                turn.onComplete();
+                Log.d(TAG, "[" + requestId + "] 回答完成: 总耗时" + elapsedMs() + "ms, 重试" + (DEFAULT_MAX_RETRIES - retriesLeft) + "次");
+                deliver(callback::onComplete);
+            } else {
+                // 事件流没有以done结束，说明连接在回答中途被关闭
+                Log.e(TAG, "[" + requestId + "] 事件流未正常结束");
+                retryOrFail("回答不完整，请稍后再试", RetryBackoff.jitter(1000), resumeConfirmed);
+            }
+        } catch (InterruptedIOException e) {
+            if (handle.isCancelled()) {
+                Log.d(TAG, "[" + requestId + "] 回答已取消，停止读取");
+                return;
+            }
+            // 空闲超时或总截止时间已到，先把已收到的内容发出去再报告超时
+            Log.e(TAG, "[" + requestId + "] 流式响应读取超时", e);
+            coalescer.flush();
+            deliver(() -> callback.onError("请求超时，服务器响应时间过长，请稍后再试"));
+        } catch (IOException e) {
+            if (handle.isCancelled() || serverErrorReported) {
+                Log.d(TAG, "[" + requestId + "] 回答已结束，停止读取");
+                return;
+            }
+            // 连接中断：先交付已收到的内容，使续传位置与界面显示一致
+            Log.e(TAG, "[" + requestId + "] 读取响应时连接中断，已接收" + eventParser.committedLength() + "个字符", e);
+            coalescer.flush();
+            retryOrFail("读取响应失败: " + e.getMessage(), RetryBackoff.jitter(1000), resumeConfirmed);
+        } catch (RuntimeException e) {
+            // 解析或回调中的意外错误：重试也会得到同样的结果，直接报告失败，避免界面停留在"正在输入..."
+            Log.e(TAG, "[" + requestId + "] 处理流式响应失败", e);
+            if (handle.isCancelled()) {
+                return;
+            }
+            coalescer.flush();
+            deliver(() -> callback.onError("处理回答失败，请稍后再试"));
+        } finally {
+            responseBody.close();
+        }
+    }
+
+    /**
+     * 按事件类型交付回调
+     * 回答片段按显示帧合并交付，其他事件交付前先发出已合并的回答，保证顺序
+     */
+    private void dispatch(ChatStreamEvent event) {
+        switch (event.getType()) {
+            case ANSWER:
+                coalescer.append(event.getText());
+                break;
+            case THINK:
+                coalescer.flush();
+                deliver(() -> callback.onThinking(event.getText()));
+                break;
+            case SOURCES:
+                coalescer.flush();
+                deliver(() -> callback.onSources(event.getSources()));
+                break;
+            case DONE:
+                coalescer.flush();
+                deliver(() -> callback.onDone(event.getUsage()));
+                break;
+            case ERROR:
+                coalescer.flush();
+                Log.e(TAG, "[" + requestId + "] 服务端报告错误: " + event.getText());
+                serverErrorReported = true;
+                deliver(() -> callback.onError(event.getText()));
+                break;
+            case HEARTBEAT:
+            default:
+                // 心跳只用于保持连接，到达时读取器的空闲超时已经重新计时
+                break;
+        }
+    }
+
+    /**
+     * 可以安全重发且还有重试次数和重试预算时延迟重连（带续传位置），否则报告错误
+     * @param resendable 请求没有被服务器处理，或服务器已确认支持续传
+     */
+    private void retryOrFail(String errorMsg, long delayMillis, boolean resendable) {
+        if (resendable && retriesLeft > 0 && retryBudget.tryAcquire()) {
+            retriesLeft--;
+            Log.d(TAG, "[" + requestId + "] " + delayMillis + "毫秒后重试");
+            StreamExecutor.schedule(() -> {
+                if (!handle.isCancelled()) {
+                    sendAttempt();
+                }
+            }, delayMillis);
+        } else {
+            deliver(() -> callback.onError(errorMsg));
+        }
+    }
+
+    private long elapsedMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+    }
+
+    /**
+     * 整个回答（包括重试）剩余的时间
+     */
+    private long remainingMs() {
+        return EndpointPolicy.CHAT_STREAM.getTotalTimeoutMs() - elapsedMs();
+    }
+
+    /**
+     * 通过回调执行器交付回调，回答已取消时不再执行
+     */
+    private void deliver(Runnable action) {
+        callbackExecutor.execute(() -> {
+            if (!handle.isCancelled()) {
+                action.run();
+            }
+        });
+    }
+}
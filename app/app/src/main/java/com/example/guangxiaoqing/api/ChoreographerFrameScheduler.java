@@ -0,0 +1,24 @@
+package com.example.guangxiaoqing.api;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * 基于Choreographer的帧调度，回调与屏幕垂直同步对齐
+ * 帧回调在布局之前执行，回调中更新列表会在同一帧内完成布局
+ */
+public class ChoreographerFrameScheduler implements FrameCoalescer.FrameScheduler {
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void postFrameCallback(Runnable frameCallback) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            Choreographer.getInstance().postFrameCallback(frameTimeNanos -> frameCallback.run());
+        } else {
+            // Choreographer属于主线程，从读取线程切换过去再注册
+            mainHandler.post(() ->
+                    Choreographer.getInstance().postFrameCallback(frameTimeNanos -> frameCallback.run()));
+        }
+    }
+}
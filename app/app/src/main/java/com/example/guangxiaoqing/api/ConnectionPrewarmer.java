@@ -0,0 +1,94 @@
+package com.example.guangxiaoqing.api;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 连接预热
+ * 在用户发送问题之前向服务器发一个HEAD请求，建立的keep-alive连接留在连接池中，
+ * 之后的聊天请求直接复用，首字延迟中不再包含TCP（和TLS）握手；
+ * 连接池中已有空闲连接时不预热，并限制最短间隔和每小时次数，避免浪费电量和流量
+ */
+public class ConnectionPrewarmer {
+    private static final String TAG = "ConnectionPrewarmer";
+    // 两次预热的最短间隔，反向代理的keep-alive超时一般不短于60秒
+    static final long MIN_INTERVAL_MS = 60_000;
+    // 每小时最多预热次数
+    static final int MAX_PER_HOUR = 12;
+    private static final long HOUR_MS = 3_600_000;
+
+    private final Call.Factory callFactory;
+    private final ConnectionPool connectionPool;
+    private final HttpUrl url;
+    // 最近一小时内的预热时间
+    private final ArrayDeque<Long> recent = new ArrayDeque<>();
+
+    /**
+     * @param callFactory 发送请求的工厂，应与聊天请求使用同一个连接池
+     * @param connectionPool 聊天请求使用的连接池
+     * @param url 需要预热的服务器地址
+     */
+    public ConnectionPrewarmer(Call.Factory callFactory, ConnectionPool connectionPool, HttpUrl url) {
+        this.callFactory = callFactory;
+        this.connectionPool = connectionPool;
+        this.url = url;
+    }
+
+    /**
+     * 需要时预热一个连接，不阻塞调用方
+     * @param reason 触发原因，只用于日志
+     * @return true表示发出了预热请求
+     */
+    public boolean prewarm(String reason) {
+        if (connectionPool.idleConnectionCount() > 0) {
+            Log.d(TAG, "已有空闲连接，跳过预热: " + reason);
+            return false;
+        }
+        if (!tryAcquire(System.currentTimeMillis())) {
+            Log.d(TAG, "预热过于频繁，跳过: " + reason);
+            return false;
+        }
+
+        Log.d(TAG, "预热连接: " + reason);
+        Request request = new Request.Builder()
+                .url(url)
+                .head()
+                .build();
+        callFactory.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                // 不关心状态码，连接建立后随响应关闭回到连接池
+                response.close();
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.d(TAG, "预热失败: " + e);
+            }
+        });
+        return true;
+    }
+
+    synchronized boolean tryAcquire(long nowMs) {
+        while (!recent.isEmpty() && nowMs - recent.peekFirst() >= HOUR_MS) {
+            recent.pollFirst();
+        }
+        if (!recent.isEmpty() && nowMs - recent.peekLast() < MIN_INTERVAL_MS) {
+            return false;
+        }
+        if (recent.size() >= MAX_PER_HOUR) {
+            return false;
+        }
+        recent.addLast(nowMs);
+        return true;
+    }
+}
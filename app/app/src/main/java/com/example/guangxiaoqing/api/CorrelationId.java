@@ -0,0 +1,71 @@
+package com.example.guangxiaoqing.api;
+
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import okhttp3.Request;
+
+/**
+ * 请求关联ID
+ * 格式为"进程前缀-序号"：进程前缀在每次启动时随机生成，区分不同设备和进程；
+ * 序号在进程内单调递增，同一毫秒内的请求也不会重复，按序号即可还原请求顺序
+ */
+public final class CorrelationId {
+    public static final String HEADER = "X-Request-ID";
+
+    private static final String PROCESS_PREFIX =
+            String.format(Locale.US, "%08x", new SecureRandom().nextInt());
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    // 当前线程正在重建的请求沿用的关联ID，见reusing
+    private static final ThreadLocal<String> REUSED_ID = new ThreadLocal<>();
+
+    private CorrelationId() {
+    }
+
+    /**
+     * 生成新的关联ID
+     */
+    public static String next() {
+        return PROCESS_PREFIX + "-" + String.format(Locale.US, "%06d", SEQUENCE.incrementAndGet());
+    }
+
+    /**
+     * 请求没有关联ID时添加一个，已有时保持不变（例如同一次回答的重试和续传请求）
+     * 在reusing中调用时添加沿用的ID
+     */
+    public static Request ensure(Request request) {
+        if (request.header(HEADER) != null) {
+            return request;
+        }
+        String reused = REUSED_ID.get();
+        return request.newBuilder().header(HEADER, reused != null ? reused : next()).build();
+    }
+
+    /**
+     * 在当前线程中创建请求，期间ensure添加的关联ID都是id
+     * 用于重试时重建的请求沿用第一次尝试的ID，服务器和日志能把整个调用串起来
+     */
+    public static <T> T reusing(String id, Supplier<T> creator) {
+        String previous = REUSED_ID.get();
+        REUSED_ID.set(id);
+        try {
+            return creator.get();
+        } finally {
+            if (previous != null) {
+                REUSED_ID.set(previous);
+            } else {
+                REUSED_ID.remove();
+            }
+        }
+    }
+
+    /**
+     * 读取请求的关联ID，没有时返回"-"
+     */
+    public static String of(Request request) {
+        String id = request.header(HEADER);
+        return id != null ? id : "-";
+    }
+}
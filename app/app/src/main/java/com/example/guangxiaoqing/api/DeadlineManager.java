@@ -0,0 +1,158 @@
+package com.example.guangxiaoqing.api;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 根据实测网络状况计算每个请求的超时
+ * 按网络类型（WiFi、蜂窝等）分别记录往返时间（建连耗时）、各接口的首字节耗时和下载速率，
+ * 用类似TCP重传超时的平滑均值加4倍偏差估算超时，结果限制在EndpointPolicy给出的上限和各自的下限之间；
+ * 网络好时更快发现失败，网络差时不会过早放弃；没有样本时使用EndpointPolicy的固定值
+ * 每个请求都会多次计算超时，网络类型应由缓存的来源提供（见NetworkTypeTracker），并且在锁外读取
+ */
+public class DeadlineManager {
+    // 告知服务器客户端还会等待多久（毫秒），服务器可据此放弃来不及完成的工作
+    public static final String HEADER_DEADLINE = "X-Deadline-Ms";
+
+    // 建连超时下限：需要容纳一次SYN重传（约1秒）
+    static final long MIN_CONNECT_TIMEOUT_MS = 4_000;
+    // 普通接口首字节超时下限：短信等接口依赖第三方服务
+    static final long MIN_READ_TIMEOUT_MS = 10_000;
+    // 流式聊天首字节超时下限：检索和生成第一个字本身需要时间
+    static final long MIN_STREAM_READ_TIMEOUT_MS = 30_000;
+    static final long MIN_WRITE_TIMEOUT_MS = 5_000;
+    // 下载速率样本的最小响应体大小，太小的响应体只反映延迟
+    static final long MIN_THROUGHPUT_SAMPLE_BYTES = 16 * 1024;
+
+    private final Supplier<String> networkType;
+    private final Map<String, Estimate> rtt = new HashMap<>();
+    private final Map<String, Estimate> firstByte = new HashMap<>();
+    private final Map<String, Double> throughput = new HashMap<>();
+
+    /**
+     * @param networkType 当前网络类型，例如"wifi"或"cellular"，会被频繁调用，不应查询系统服务
+     */
+    public DeadlineManager(Supplier<String> networkType) {
+        this.networkType = networkType;
+    }
+
+    /**
+     * 记录一次建连耗时（约等于一个往返时间）
+     */
+    public void recordConnect(long millis) {
+        String type = networkType.get();
+        synchronized (this) {
+            estimate(rtt, type).add(millis);
+        }
+    }
+
+    /**
+     * 记录一次请求发出到响应头到达的耗时
+     */
+    public void recordFirstByte(EndpointPolicy policy, long millis) {
+        String type = networkType.get();
+        synchronized (this) {
+            estimate(firstByte, type + "/" + policy.getName()).add(millis);
+        }
+    }
+
+    /**
+     * 记录一次响应体下载，用于估算速率
+     */
+    public void recordDownload(long bytes, long millis) {
+        if (bytes < MIN_THROUGHPUT_SAMPLE_BYTES || millis <= 0) {
+            return;
+        }
+        double bytesPerMs = (double) bytes / millis;
+        String type = networkType.get();
+        synchronized (this) {
+            Double previous = throughput.get(type);
+            throughput.put(type, previous == null ? bytesPerMs : previous * 0.75 + bytesPerMs * 0.25);
+        }
+    }
+
+    /**
+     * 建连超时
+     */
+    public long connectTimeoutMs(EndpointPolicy policy) {
+        String type = networkType.get();
+        synchronized (this) {
+            Estimate estimate = rtt.get(type);
+            if (estimate == null) {
+                return policy.getConnectTimeoutMs();
+            }
+            return clamp(3 * estimate.timeout(), MIN_CONNECT_TIMEOUT_MS, policy.getConnectTimeoutMs());
+        }
+    }
+
+    /**
+     * 读取超时（等待首字节和两次数据之间的最长间隔）
+     */
+    public long readTimeoutMs(EndpointPolicy policy) {
+        String type = networkType.get();
+        synchronized (this) {
+            Estimate serverEstimate = firstByte.get(type + "/" + policy.getName());
+            if (serverEstimate == null) {
+                return policy.getReadTimeoutMs();
+            }
+            Estimate rttEstimate = rtt.get(type);
+            long network = rttEstimate != null ? 2 * rttEstimate.timeout() : 0;
+            long min = policy == EndpointPolicy.CHAT_STREAM ? MIN_STREAM_READ_TIMEOUT_MS : MIN_READ_TIMEOUT_MS;
+            return clamp(2 * serverEstimate.timeout() + network, min, policy.getReadTimeoutMs());
+        }
+    }
+
+    /**
+     * 写入超时，请求体越大越长
+     * @param bodyBytes 请求体字节数，未知时为-1
+     */
+    public long writeTimeoutMs(EndpointPolicy policy, long bodyBytes) {
+        String type = networkType.get();
+        synchronized (this) {
+            Estimate rttEstimate = rtt.get(type);
+            Double downloadRate = throughput.get(type);
+            if (rttEstimate == null || downloadRate == null) {
+                return policy.getWriteTimeoutMs();
+            }
+            // 上行通常比下行慢得多，按下载速率的四分之一估算
+            long transfer = bodyBytes > 0 ? (long) (bodyBytes / (downloadRate / 4)) : 0;
+            return clamp(4 * rttEstimate.timeout() + 2 * transfer, MIN_WRITE_TIMEOUT_MS, policy.getWriteTimeoutMs());
+        }
+    }
+
+    private static Estimate estimate(Map<String, Estimate> estimates, String key) {
+        Estimate estimate = estimates.get(key);
+        if (estimate == null) {
+            estimate = new Estimate();
+            estimates.put(key, estimate);
+        }
+        return estimate;
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(Math.min(value, max), Math.min(min, max));
+    }
+
+    /**
+     * 平滑均值和平均偏差，算法同TCP的重传超时估算（RFC 6298）
+     */
+    private static class Estimate {
+        private double mean = -1;
+        private double deviation;
+
+        void add(long sample) {
+            if (mean < 0) {
+                mean = sample;
+                deviation = sample / 2.0;
+            } else {
+                deviation = deviation * 0.75 + Math.abs(mean - sample) * 0.25;
+                mean = mean * 0.875 + sample * 0.125;
+            }
+        }
+
+        long timeout() {
+            return (long) (mean + 4 * deviation);
+        }
+    }
+}
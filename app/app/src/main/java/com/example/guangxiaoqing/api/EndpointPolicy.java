@@ -0,0 +1,99 @@
+package com.example.guangxiaoqing.api;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+
+/**
+ * 各接口的网络策略（超时上限、日志）
+ * 所有接口共用ApiClient中的同一个OkHttpClient（同一个连接池和调度器），
+ * 不为不同接口创建新的客户端，而是在拦截器中按请求路径应用对应的策略；
+ * 这里的超时是上限，实际超时由DeadlineManager根据实测的网络状况在上限以内调整
+ */
+public final class EndpointPolicy {
+    // 普通接口：短连接超时，读取给第三方短信等慢接口留出余量
+    public static final EndpointPolicy DEFAULT = new EndpointPolicy("default", 15_000, 30_000, 15_000, 60_000, true);
+    // 流式聊天：等待首字节的时间较长，整个回答（包括续传）最多3分钟，响应体不能被日志拦截器缓冲
+    public static final EndpointPolicy CHAT_STREAM = new EndpointPolicy("chat_stream", 15_000, 120_000, 15_000, 180_000, false);
+
+    private final String name;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final int writeTimeoutMs;
+    private final int totalTimeoutMs;
+    private final boolean logBody;
+
+    private EndpointPolicy(String name, int connectTimeoutMs, int readTimeoutMs, int writeTimeoutMs,
+                           int totalTimeoutMs, boolean logBody) {
+        this.name = name;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.writeTimeoutMs = writeTimeoutMs;
+        this.totalTimeoutMs = totalTimeoutMs;
+        this.logBody = logBody;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    public int getWriteTimeoutMs() {
+        return writeTimeoutMs;
+    }
+
+    /**
+     * 整个调用（包括重试和读取完整的响应体）允许的最长时间
+     */
+    public int getTotalTimeoutMs() {
+        return totalTimeoutMs;
+    }
+
+    /**
+     * 是否记录请求和响应体
+     */
+    public boolean isLogBody() {
+        return logBody;
+    }
+
+    /**
+     * 根据请求路径选择策略
+     */
+    public static EndpointPolicy forRequest(Request request) {
+        if (request.url().encodedPath().endsWith("/chat/stream")) {
+            return CHAT_STREAM;
+        }
+        return DEFAULT;
+    }
+
+    /**
+     * 为每个请求应用由DeadlineManager计算的超时，需要放在其他拦截器之前
+     * 请求没有携带剩余时间时，把读取超时作为剩余时间通过X-Deadline-Ms告知服务器
+     */
+    public static Interceptor timeoutInterceptor(DeadlineManager deadlines) {
+        return chain -> {
+            Request request = chain.request();
+            EndpointPolicy policy = forRequest(request);
+            long bodyBytes = request.body() != null ? request.body().contentLength() : -1;
+            long readTimeoutMs = deadlines.readTimeoutMs(policy);
+            if (request.header(DeadlineManager.HEADER_DEADLINE) == null) {
+                request = request.newBuilder()
+                        .header(DeadlineManager.HEADER_DEADLINE, String.valueOf(readTimeoutMs))
+                        .build();
+            }
+            return chain
+                    .withConnectTimeout((int) deadlines.connectTimeoutMs(policy), TimeUnit.MILLISECONDS)
+                    .withReadTimeout((int) readTimeoutMs, TimeUnit.MILLISECONDS)
+                    .withWriteTimeout((int) deadlines.writeTimeoutMs(policy, bodyBytes), TimeUnit.MILLISECONDS)
+                    .proceed(request);
+        };
+    }
+}
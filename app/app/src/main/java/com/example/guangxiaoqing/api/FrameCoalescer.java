@@ -0,0 +1,84 @@
+package com.example.guangxiaoqing.api;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 回答文本的按帧合并器
+ * 读取线程随时追加文本，界面每个显示帧最多收到一次合并后的文本，
+ * 回答输出越快，每次交付的文本越长，而不是布局次数越多
+ */
+public class FrameCoalescer {
+
+    /**
+     * 在下一个显示帧回调任务，Android上由Choreographer实现
+     */
+    public interface FrameScheduler {
+        void postFrameCallback(Runnable frameCallback);
+    }
+
+    /**
+     * 接收合并后的文本，在回调线程执行
+     */
+    public interface Sink {
+        void onText(String text);
+    }
+
+    private final Executor callbackExecutor;
+    private final FrameScheduler frameScheduler;
+    private final Sink sink;
+
+    private final StringBuilder pending = new StringBuilder();
+    private boolean frameScheduled = false;
+
+    public FrameCoalescer(Executor callbackExecutor, FrameScheduler frameScheduler, Sink sink) {
+        this.callbackExecutor = callbackExecutor;
+        this.frameScheduler = frameScheduler;
+        this.sink = sink;
+    }
+
+    /**
+     * 追加文本（任意线程），本帧还没有安排交付时安排一次
+     */
+    public void append(String text) {
+        synchronized (this) {
+            pending.append(text);
+            if (frameScheduled) {
+                return;
+            }
+            frameScheduled = true;
+        }
+        frameScheduler.postFrameCallback(this::onFrame);
+    }
+
+    /**
+     * 不等下一帧，立即交付剩余文本
+     * 交付排在回调执行器中，之后交付的其他回调不会越过这段文本
+     */
+    public void flush() {
+        synchronized (this) {
+            if (pending.length() == 0) {
+                return;
+            }
+        }
+        callbackExecutor.execute(this::drain);
+    }
+
+    private void onFrame() {
+        synchronized (this) {
+            frameScheduled = false;
+        }
+        drain();
+    }
+
+    private void drain() {
+        String text;
+        synchronized (this) {
+            if (pending.length() == 0) {
+                return;
+            }
+            text = pending.toString();
+            pending.setLength(0);
+        }
+        sink.onText(text);
+    }
+}
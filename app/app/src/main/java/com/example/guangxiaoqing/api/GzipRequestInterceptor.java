@@ -0,0 +1,111 @@
+package com.example.guangxiaoqing.api;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * 请求体gzip压缩拦截器
+ * 只压缩超过阈值的请求体（主要是带历史记录的聊天请求），小请求压缩后反而可能变大；
+ * 需要显式启用，服务器返回415拒绝压缩的请求时，记住该主机不支持并以未压缩的请求重发一次；
+ * 415表示服务器没有处理请求体，重发不会让非幂等请求执行两次，其他错误（包括400）照常返回给调用方
+ */
+public class GzipRequestInterceptor implements Interceptor {
+    private static final String TAG = "GzipRequest";
+    // 默认压缩阈值，小于该字节数的请求体不压缩
+    public static final long DEFAULT_MIN_SIZE = 1024;
+
+    private final long minSize;
+    private volatile boolean enabled = false;
+    // 已知不接受压缩请求体的主机
+    private final Set<String> unsupportedHosts = ConcurrentHashMap.newKeySet();
+
+    public GzipRequestInterceptor(long minSize) {
+        this.minSize = minSize;
+    }
+
+    /**
+     * 设置是否压缩请求体，需要服务器能够解压Content-Encoding: gzip的请求
+     * 重新启用时清除已记录的不支持的主机
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (enabled) {
+            unsupportedHosts.clear();
+        }
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        RequestBody body = request.body();
+        if (!shouldCompress(request, body)) {
+            return chain.proceed(request);
+        }
+
+        RequestBody compressed = gzip(body);
+        Request compressedRequest = request.newBuilder()
+                .header("Content-Encoding", "gzip")
+                .method(request.method(), compressed)
+                .build();
+        Response response = chain.proceed(compressedRequest);
+
+        if (rejectsGzip(response)) {
+            // 旧服务器不能解压请求体，之后对该主机不再压缩
+            String host = request.url().host();
+            unsupportedHosts.add(host);
+            Log.d(TAG, "[" + CorrelationId.of(request) + "] 服务器不接受压缩的请求体(" + response.code()
+                    + ")，改为未压缩重发: " + host);
+            response.close();
+            return chain.proceed(request);
+        }
+        return response;
+    }
+
+    /**
+     * 服务器是否因为请求体经过压缩而拒绝请求
+     * 415的响应带有Accept-Encoding且其中包含gzip时（RFC 7694），说明拒绝的原因不是压缩
+     */
+    static boolean rejectsGzip(Response response) {
+        if (response.code() != 415) {
+            return false;
+        }
+        String acceptEncoding = response.header("Accept-Encoding");
+        return acceptEncoding == null || !acceptEncoding.toLowerCase(Locale.ROOT).contains("gzip");
+    }
+
+    private boolean shouldCompress(Request request, RequestBody body) throws IOException {
+        return enabled
+                && body != null
+                && request.header("Content-Encoding") == null
+                && !body.isOneShot()
+                && !body.isDuplex()
+                && body.contentLength() >= minSize
+                && !unsupportedHosts.contains(request.url().host());
+    }
+
+    /**
+     * 压缩到内存中，保留Content-Length，不改用分块传输
+     */
+    static RequestBody gzip(RequestBody body) throws IOException {
+        Buffer compressed = new Buffer();
+        try (BufferedSink sink = Okio.buffer(new GzipSink(compressed))) {
+            body.writeTo(sink);
+        }
+        MediaType contentType = body.contentType();
+        return RequestBody.create(compressed.readByteString(), contentType);
+    }
+}
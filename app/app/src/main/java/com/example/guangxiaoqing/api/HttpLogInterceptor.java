@@ -0,0 +1,132 @@
+package com.example.guangxiaoqing.api;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+/**
+ * 调试用的HTTP日志拦截器，只在DEBUG构建中安装
+ * 默认只记录请求行、脱敏后的请求头、耗时和大小；请求和响应体只对抽样的请求记录，
+ * 流式接口（EndpointPolicy.isLogBody()为false）的请求体和响应体从不读取，避免缓冲整个回答
+ */
+public class HttpLogInterceptor implements Interceptor {
+    private static final String TAG = "HttpLog";
+    // 记录请求体和响应体的最大字节数
+    private static final long MAX_BODY_BYTES = 4096;
+    // 不输出值的请求头和响应头
+    private static final String[] REDACTED_HEADERS = {"Authorization", "Cookie", "Set-Cookie"};
+    // 请求体和响应体中需要隐藏的字段
+    private static final Pattern SECRET_FIELDS = Pattern.compile(
+            "(\"(?:password|old_password|new_password|access_token)\"\\s*:\\s*)\"(?:[^\"\\\\]|\\\\.)*\"");
+
+    // 每多少个请求抽样记录一次请求体和响应体
+    private final int bodySampleRate;
+
+    /**
+     * @param bodySampleRate 每多少个请求记录一次请求体和响应体，1表示全部记录
+     */
+    public HttpLogInterceptor(int bodySampleRate) {
+        this.bodySampleRate = Math.max(1, bodySampleRate);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        boolean logBody = EndpointPolicy.forRequest(request).isLogBody()
+                && ThreadLocalRandom.current().nextInt(bodySampleRate) == 0;
+
+        RequestBody requestBody = request.body();
+        StringBuilder requestLog = new StringBuilder()
+                .append("--> ").append(request.method()).append(' ').append(request.url());
+        if (requestBody != null) {
+            requestLog.append(" (").append(describeLength(requestBody.contentLength())).append(')');
+        }
+        appendHeaders(requestLog, request.headers());
+        if (logBody && requestBody != null && !requestBody.isOneShot() && !requestBody.isDuplex()) {
+            Buffer buffer = new Buffer();
+            requestBody.writeTo(buffer);
+            requestLog.append("\n").append(redact(readText(buffer, requestBody.contentType())));
+        }
+        Log.d(TAG, requestLog.toString());
+
+        long startNs = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            Log.d(TAG, "<-- 失败 " + request.url() + ": " + e);
+            throw e;
+        }
+        long tookMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+
+        ResponseBody responseBody = response.body();
+        StringBuilder responseLog = new StringBuilder()
+                .append("<-- ").append(response.code()).append(' ').append(response.protocol())
+                .append(' ').append(request.url())
+                .append(" (").append(tookMs).append("ms");
+        if (responseBody != null) {
+            responseLog.append(", ").append(describeLength(responseBody.contentLength()));
+        }
+        responseLog.append(')');
+        appendHeaders(responseLog, response.headers());
+        if (logBody && responseBody != null) {
+            // peekBody最多读取MAX_BODY_BYTES，不消耗原响应体
+            ResponseBody peeked = response.peekBody(MAX_BODY_BYTES);
+            responseLog.append("\n").append(redact(peeked.string()));
+        }
+        Log.d(TAG, responseLog.toString());
+        return response;
+    }
+
+    private static void appendHeaders(StringBuilder log, Headers headers) {
+        for (int i = 0; i < headers.size(); i++) {
+            String name = headers.name(i);
+            log.append("\n").append(name).append(": ")
+                    .append(isRedacted(name) ? "██" : headers.value(i));
+        }
+    }
+
+    private static boolean isRedacted(String headerName) {
+        for (String redacted : REDACTED_HEADERS) {
+            if (redacted.equalsIgnoreCase(headerName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String describeLength(long contentLength) {
+        return contentLength >= 0 ? contentLength + "字节" : "长度未知";
+    }
+
+    private static String readText(Buffer buffer, MediaType contentType) {
+        Charset charset = contentType != null ? contentType.charset(StandardCharsets.UTF_8) : StandardCharsets.UTF_8;
+        long size = Math.min(buffer.size(), MAX_BODY_BYTES);
+        try {
+            return buffer.readString(size, charset);
+        } catch (Exception e) {
+            return "(无法解码的请求体)";
+        }
+    }
+
+    /**
+     * 隐藏JSON中的密码和token字段
+     */
+    static String redact(String body) {
+        return SECRET_FIELDS.matcher(body).replaceAll("$1\"██\"");
+    }
+}
@@ -0,0 +1,357 @@
+package com.example.guangxiaoqing.api;
+
+import com.example.guangxiaoqing.model.ChatMessage;
+import com.example.guangxiaoqing.model.ChatRequest;
+import com.example.guangxiaoqing.model.ChatResponse;
+import com.example.guangxiaoqing.model.ChatSource;
+import com.example.guangxiaoqing.model.ChatUsage;
+import com.example.guangxiaoqing.model.LoginRequest;
+import com.example.guangxiaoqing.model.PasswordChangeRequest;
+import com.example.guangxiaoqing.model.RegisterRequest;
+import com.example.guangxiaoqing.model.ResetPasswordRequest;
+import com.example.guangxiaoqing.model.SmsRequest;
+import com.example.guangxiaoqing.model.TokenResponse;
+import com.example.guangxiaoqing.model.VerifyCodeRequest;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * model包中所有类型的手写JSON编解码器
+ * 直接按字段名读写JsonReader/JsonWriter，不通过反射访问字段，
+ * 因此release构建可以开启R8混淆和压缩，第一次发请求时也不需要反射扫描模型类；
+ * 新增模型类时需要在这里注册，ModelTypeAdaptersTest会检查ApiService用到的类型都已注册
+ */
+public final class ModelTypeAdapters implements TypeAdapterFactory {
+    private static final Map<Class<?>, TypeAdapter<?>> ADAPTERS = new HashMap<>();
+
+    static {
+        register(ChatMessage.class, new TypeAdapter<ChatMessage>() {
+            @Override
+            public void write(JsonWriter out, ChatMessage value) throws IOException {
+                out.beginObject();
+                out.name("role").value(value.getRole());
+                out.name("content").value(value.getContent());
+                out.endObject();
+            }
+
+            @Override
+            public ChatMessage read(JsonReader in) throws IOException {
+                Map<String, String> fields = readFields(in);
+                return new ChatMessage(string(fields, "role"), string(fields, "content"));
+            }
+        });
+        register(ChatRequest.class, new TypeAdapter<ChatRequest>() {
+            @Override
+            public void write(JsonWriter out, ChatRequest value) throws IOException {
+                out.beginObject();
+                out.name("content").value(value.getContent());
+                if (value.getHistory() != null) {
+                    out.name("history").beginArray();
+                    TypeAdapter<ChatMessage> messageAdapter = adapter(ChatMessage.class);
+                    for (ChatMessage message : value.getHistory()) {
+                        messageAdapter.write(out, message);
+                    }
+                    out.endArray();
+                }
+                out.name("conversation_id").value(value.getConversationId());
+                out.name("turn_seq").value(value.getTurnSeq());
+                out.endObject();
+            }
+
+            @Override
+            public ChatRequest read(JsonReader in) throws IOException {
+                String content = null;
+                List<ChatMessage> history = null;
+                String conversationId = null;
+                Integer turnSeq = null;
+                in.beginObject();
+                while (in.hasNext()) {
+                    String name = in.nextName();
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        continue;
+                    }
+                    switch (name) {
+                        case "content":
+                            content = in.nextString();
+                            break;
+                        case "history":
+                            history = new ArrayList<>();
+                            in.beginArray();
+                            while (in.hasNext()) {
+                                history.add(adapter(ChatMessage.class).read(in));
+                            }
+                            in.endArray();
+                            break;
+                        case "conversation_id":
+                            conversationId = in.nextString();
+                            break;
+                        case "turn_seq":
+                            turnSeq = in.nextInt();
+                            break;
+                        default:
+                            in.skipValue();
+                            break;
+                    }
+                }
+                in.endObject();
+                ChatRequest request = conversationId != null
+                        ? ChatRequest.delta(content, conversationId, turnSeq != null ? turnSeq : 0)
+                        : new ChatRequest(content, history);
+                request.setTurnSeq(turnSeq);
+                return request;
+            }
+        });
+        register(ChatResponse.class, new TypeAdapter<ChatResponse>() {
+            @Override
+            public void write(JsonWriter out, ChatResponse value) throws IOException {
+                out.beginObject();
+                out.name("content").value(value.getContent());
+                out.endObject();
+            }
+
+            @Override
+            public ChatResponse read(JsonReader in) throws IOException {
+                Map<String, String> fields = readFields(in);
+                return new ChatResponse(string(fields, "content"));
+            }
+        });
+        register(ChatSource.class, new TypeAdapter<ChatSource>() {
+            @Override
+            public void write(JsonWriter out, ChatSource value) throws IOException {
+                out.beginObject();
+                out.name("title").value(value.getTitle());
+                out.name("url").value(value.getUrl());
+                out.name("snippet").value(value.getSnippet());
+                out.endObject();
+            }
+
+            @Override
+            public ChatSource read(JsonReader in) throws IOException {
+                Map<String, String> fields = readFields(in);
+                return new ChatSource(string(fields, "title"), string(fields, "url"), string(fields, "snippet"));
+            }
+        });
+        register(ChatUsage.class, new TypeAdapter<ChatUsage>() {
+            @Override
+            public void write(JsonWriter out, ChatUsage value) throws IOException {
+                out.beginObject();
+                out.name("prompt_tokens").value(value.getPromptTokens());
+                out.name("completion_tokens").value(value.getCompletionTokens());
+                out.name("total_tokens").value(value.getTotalTokens());
+                out.endObject();
+            }
+
+            @Override
+            public ChatUsage read(JsonReader in) throws IOException {
+                Map<String, String> fields = readFields(in);
+                return new ChatUsage(integer(fields, "prompt_tokens"), integer(fields, "completion_tokens"),
+                        integer(fields, "total_tokens"));
+            }
+        });
+        register(LoginRequest.class, new TypeAdapter<LoginRequest>() {
+            @Override
+            public void write(JsonWriter out, LoginRequest value) throws IOException {
+                out.beginObject();
+                out.name("phone").value(value.getPhone());
+                out.name("password").value(value.getPassword());
+                out.endObject();
+            }
+
+            @Override
+            public LoginRequest read(JsonReader in) throws IOException {
+                Map<String, String> fields = readFields(in);
+                return new LoginRequest(string(fields, "phone"), string(fields, "password"));
+            }
+        });
+        register(PasswordChangeRequest.class, new TypeAdapter<PasswordChangeRequest>() {
+            @Override
+            public void write(JsonWriter out, PasswordChangeRequest value) throws IOException {
+                out.beginObject();
+                out.name("phone").value(value.getPhone());
+                out.name("old_password").value(value.getOldPassword());
+                out.name("new_password").value(value.getNewPassword());
+                out.endObject();
+            }
+
+            @Override
+            public PasswordChangeRequest read(JsonReader in) throws IOException {
+                Map<String, String> fields = readFields(in);
+                return new PasswordChangeRequest(string(fields, "phone"), string(fields, "old_password"),
+                        string(fields, "new_password"));
+            }
+        });
+        register(RegisterRequest.class, new TypeAdapter<RegisterRequest>() {
+            @Override
+            public void write(JsonWriter out, RegisterRequest value) throws IOException {
+                out.beginObject();
+                out.name("phone").value(value.getPhone());
+                out.name("password").value(value.getPassword());
+                out.name("code").value(value.getCode());
+                out.endObject();
+            }
+
+            @Override
+            public RegisterRequest read(JsonReader in) throws IOException {
+                Map<String, String> fields = readFields(in);
+                return new RegisterRequest(string(fields, "phone"), string(fields, "password"), string(fields, "code"));
+            }
+        });
+        register(ResetPasswordRequest.class, new TypeAdapter<ResetPasswordRequest>() {
+            @Override
+            public void write(JsonWriter out, ResetPasswordRequest value) throws IOException {
+                out.beginObject();
+                out.name("phone").value(value.getPhone());
+                out.name("code").value(value.getCode());
+                out.name("new_password").value(value.getNewPassword());
+                out.endObject();
+            }
+
+            @Override
+            public ResetPasswordRequest read(JsonReader in) throws IOException {
+                Map<String, String> fields = readFields(in);
+                return new ResetPasswordRequest(string(fields, "phone"), string(fields, "code"),
+                        string(fields, "new_password"));
+            }
+        });
+        register(SmsRequest.class, new TypeAdapter<SmsRequest>() {
+            @Override
+            public void write(JsonWriter out, SmsRequest value) throws IOException {
+                out.beginObject();
+                out.name("phone").value(value.getPhone());
+                out.name("type").value(value.getType());
+                out.endObject();
+            }
+
+            @Override
+            public SmsRequest read(JsonReader in) throws IOException {
+                Map<String, String> fields = readFields(in);
+                return new SmsRequest(string(fields, "phone"), string(fields, "type"));
+            }
+        });
+        register(TokenResponse.class, new TypeAdapter<TokenResponse>() {
+            @Override
+            public void write(JsonWriter out, TokenResponse value) throws IOException {
+                out.beginObject();
+                out.name("access_token").value(value.getAccessToken());
+                out.name("token_type").value(value.getTokenType());
+                out.endObject();
+            }
+
+            @Override
+            public TokenResponse read(JsonReader in) throws IOException {
+                Map<String, String> fields = readFields(in);
+                TokenResponse response = new TokenResponse();
+                response.setAccessToken(string(fields, "access_token"));
+                response.setTokenType(string(fields, "token_type"));
+                return response;
+            }
+        });
+        register(VerifyCodeRequest.class, new TypeAdapter<VerifyCodeRequest>() {
+            @Override
+            public void write(JsonWriter out, VerifyCodeRequest value) throws IOException {
+                out.beginObject();
+                out.name("phone").value(value.getPhone());
+                out.name("code").value(value.getCode());
+                out.name("type").value(value.getType());
+                out.endObject();
+            }
+
+            @Override
+            public VerifyCodeRequest read(JsonReader in) throws IOException {
+                Map<String, String> fields = readFields(in);
+                return new VerifyCodeRequest(string(fields, "phone"), string(fields, "code"), string(fields, "type"));
+            }
+        });
+    }
+
+    private ModelTypeAdapters() {
+    }
+
+    /**
+     * 创建注册了所有模型编解码器的Gson实例
+     */
+    public static Gson createGson() {
+        return new GsonBuilder()
+                .registerTypeAdapterFactory(new ModelTypeAdapters())
+                .create();
+    }
+
+    /**
+     * 类型是否有手写的编解码器
+     */
+    static boolean isRegistered(Class<?> type) {
+        return ADAPTERS.containsKey(type);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        // 未注册的类型返回null，交给Gson默认的处理
+        TypeAdapter<T> adapter = (TypeAdapter<T>) ADAPTERS.get(type.getRawType());
+        return adapter != null ? adapter.nullSafe() : null;
+    }
+
+    private static <T> void register(Class<T> type, TypeAdapter<T> adapter) {
+        ADAPTERS.put(type, adapter);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> TypeAdapter<T> adapter(Class<T> type) {
+        return ((TypeAdapter<T>) ADAPTERS.get(type)).nullSafe();
+    }
+
+    /**
+     * 读取只包含字符串和数字字段的对象，未知的嵌套字段直接跳过
+     */
+    private static Map<String, String> readFields(JsonReader in) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            switch (in.peek()) {
+                case STRING:
+                case NUMBER:
+                    // 数字按字符串读取，由调用方转换
+                    fields.put(name, in.nextString());
+                    break;
+                case BOOLEAN:
+                    fields.put(name, String.valueOf(in.nextBoolean()));
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        return fields;
+    }
+
+    private static String string(Map<String, String> fields, String name) {
+        return fields.get(name);
+    }
+
+    private static int integer(Map<String, String> fields, String name) {
+        String value = string(fields, name);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return (int) Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.guangxiaoqing.api;
+
+import com.example.guangxiaoqing.model.ChatSource;
+import com.example.guangxiaoqing.model.ChatUsage;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * NDJSON事件解析器：每行一个JSON对象，按行增量解析
+ * 不完整的行保留到下一次feed，未知的事件类型和字段直接跳过
+ */
+class NdjsonEventParser implements ChatEventParser {
+    private final StringBuilder partialLine = new StringBuilder();
+    private long committedLength = 0;
+    private boolean complete = false;
+
+    @Override
+    public void feed(String text, Listener listener) throws IOException {
+        int start = 0;
+        int newline;
+        while ((newline = text.indexOf('\n', start)) != -1) {
+            partialLine.append(text, start, newline);
+            String line = partialLine.toString();
+            partialLine.setLength(0);
+            // 换行符本身也计入续传位置
+            committedLength += line.codePointCount(0, line.length()) + 1;
+            parseLine(line, listener);
+            start = newline + 1;
+        }
+        partialLine.append(text, start, text.length());
+    }
+
+    @Override
+    public void finish(Listener listener) throws IOException {
+        // 最后一行可以没有换行符
+        if (partialLine.length() > 0) {
+            String line = partialLine.toString();
+            partialLine.setLength(0);
+            committedLength += line.codePointCount(0, line.length());
+            parseLine(line, listener);
+        }
+    }
+
+    @Override
+    public long committedLength() {
+        return committedLength;
+    }
+
+    @Override
+    public void dropUncommitted() {
+        partialLine.setLength(0);
+    }
+
+    @Override
+    public boolean isComplete() {
+        return complete;
+    }
+
+    private void parseLine(String line, Listener listener) throws IOException {
+        if (line.trim().isEmpty()) {
+            return;
+        }
+
+        String type = null;
+        String text = null;
+        List<ChatSource> sources = null;
+        ChatUsage usage = null;
+
+        try (JsonReader reader = new JsonReader(new StringReader(line))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "type":
+                        type = reader.nextString();
+                        break;
+                    case "text":
+                    case "message":
+                        text = nextNullableString(reader);
+                        break;
+                    case "sources":
+                        sources = readSources(reader);
+                        break;
+                    case "usage":
+                        usage = readUsage(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new ProtocolException("事件格式错误: " + line);
+        }
+
+        if (type == null) {
+            throw new ProtocolException("事件缺少type字段: " + line);
+        }
+        switch (type) {
+            case "think":
+                if (text != null && !text.isEmpty()) {
+                    listener.onEvent(ChatStreamEvent.think(text));
+                }
+                break;
+            case "answer":
+                if (text != null && !text.isEmpty()) {
+                    listener.onEvent(ChatStreamEvent.answer(text));
+                }
+                break;
+            case "sources":
+                listener.onEvent(ChatStreamEvent.sources(sources != null ? sources : new ArrayList<>()));
+                break;
+            case "heartbeat":
+                listener.onEvent(ChatStreamEvent.heartbeat());
+                break;
+            case "done":
+                complete = true;
+                listener.onEvent(ChatStreamEvent.done(usage));
+                break;
+            case "error":
+                complete = true;
+                listener.onEvent(ChatStreamEvent.error(text != null ? text : "服务器处理失败"));
+                break;
+            default:
+                // 新版本服务器可能增加事件类型，旧客户端忽略即可
+                break;
+        }
+    }
+
+    private static String nextNullableString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static List<ChatSource> readSources(JsonReader reader) throws IOException {
+        List<ChatSource> sources = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String title = null;
+            String url = null;
+            String snippet = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "title":
+                        title = nextNullableString(reader);
+                        break;
+                    case "url":
+                        url = nextNullableString(reader);
+                        break;
+                    case "snippet":
+                        snippet = nextNullableString(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            sources.add(new ChatSource(title, url, snippet));
+        }
+        reader.endArray();
+        return sources;
+    }
+
+    private static ChatUsage readUsage(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        int promptTokens = 0;
+        int completionTokens = 0;
+        int totalTokens = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "prompt_tokens":
+                    promptTokens = reader.nextInt();
+                    break;
+                case "completion_tokens":
+                    completionTokens = reader.nextInt();
+                    break;
+                case "total_tokens":
+                    totalTokens = reader.nextInt();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        if (totalTokens == 0) {
+            totalTokens = promptTokens + completionTokens;
+        }
+        return new ChatUsage(promptTokens, completionTokens, totalTokens);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.guangxiaoqing.api;
+
+/**
+ * 纯文本响应的兼容解析器，供不支持NDJSON的旧服务器使用
+ * 增量识别<think>...</think>标签，标签内的内容作为思考事件，其余作为回答事件；
+ * 标签可能被拆分到多段文本中，疑似标签开头的尾部会保留到下一次feed
+ */
+class PlainTextEventParser implements ChatEventParser {
+    private static final String THINK_OPEN = "<think>";
+    private static final String THINK_CLOSE = "</think>";
+
+    // 可能是标签开头的尾部文本
+    private String held = "";
+    private boolean thinking = false;
+    // 已接收的字符数（按Unicode码点计数）
+    private long fedLength = 0;
+    private boolean finished = false;
+
+    @Override
+    public void feed(String text, Listener listener) {
+        fedLength += text.codePointCount(0, text.length());
+        String buffer = held.isEmpty() ? text : held + text;
+        held = "";
+        int position = 0;
+        while (position < buffer.length()) {
+            String tag = thinking ? THINK_CLOSE : THINK_OPEN;
+            int tagIndex = buffer.indexOf(tag, position);
+            if (tagIndex != -1) {
+                emit(buffer, position, tagIndex, listener);
+                thinking = !thinking;
+                position = tagIndex + tag.length();
+                continue;
+            }
+
+            // 没有完整的标签，检查末尾是否可能是被拆开的标签
+            int heldStart = partialTagStart(buffer, position, tag);
+            emit(buffer, position, heldStart, listener);
+            held = buffer.substring(heldStart);
+            position = buffer.length();
+        }
+    }
+
+    @Override
+    public void finish(Listener listener) {
+        // 流已结束，保留的内容不可能再组成标签
+        if (!held.isEmpty()) {
+            String rest = held;
+            held = "";
+            emit(rest, 0, rest.length(), listener);
+        }
+        finished = true;
+    }
+
+    @Override
+    public long committedLength() {
+        // 保留的内容只可能是标签前缀，只包含ASCII字符，码点数等于字符数
+        return fedLength - held.length();
+    }
+
+    @Override
+    public void dropUncommitted() {
+        fedLength -= held.length();
+        held = "";
+    }
+
+    @Override
+    public boolean isComplete() {
+        return finished;
+    }
+
+    private void emit(String buffer, int start, int end, Listener listener) {
+        if (end <= start) {
+            return;
+        }
+        String part = buffer.substring(start, end);
+        listener.onEvent(thinking ? ChatStreamEvent.think(part) : ChatStreamEvent.answer(part));
+    }
+
+    /**
+     * 找到末尾可能是tag前缀的起始位置，没有时返回buffer长度
+     */
+    private static int partialTagStart(String buffer, int from, String tag) {
+        int start = Math.max(from, buffer.length() - tag.length() + 1);
+        for (int i = start; i < buffer.length(); i++) {
+            if (buffer.charAt(i) == '<' && tag.startsWith(buffer.substring(i))) {
+                return i;
+            }
+        }
+        return buffer.length();
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.guangxiaoqing.api;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 支持HTTP/2明文（h2c prior knowledge）并自动回退的请求工厂
+ *
+ * HTTPS请求由共享客户端通过ALPN协商h2或http/1.1；
+ * 开启h2c后，明文请求先照常使用HTTP/1.1，同时在后台用HEAD请求探测服务器：探测得到HTTP/2响应后，
+ * 之后到该主机的请求才改用h2c；探测在建立连接后失败时，一段时间内记住该主机只支持HTTP/1.1。
+ * 真正的请求从不因为协议换一种方式重发，登录、注册、聊天等非幂等请求不会执行两次；
+ * 使用h2c的请求失败时，该主机回到未探测的状态，下一个请求使用HTTP/1.1并重新探测
+ * 所有客户端由同一个OkHttpClient派生，共享连接池和调度器
+ */
+public class ProtocolFallbackCallFactory implements Call.Factory {
+    private static final String TAG = "ProtocolFallback";
+    // 记住不支持h2c的主机的时间，过期后重新探测（服务器可能已升级或只是暂时异常）
+    static final long HTTP1_HOST_TTL_MS = 10 * 60_000;
+
+    private final OkHttpClient client;
+    private final OkHttpClient priorKnowledgeClient;
+    // 探测使用的客户端，用事件监听记录探测是否建立了连接
+    private final OkHttpClient probeClient;
+    // 探测确认支持h2c的主机
+    private final Set<String> h2cHosts = ConcurrentHashMap.newKeySet();
+    // 不支持h2c的主机，以及到期时间（System.nanoTime）
+    private final Map<String, Long> http1Hosts = new ConcurrentHashMap<>();
+    // 正在探测的主机
+    private final Set<String> probingHosts = ConcurrentHashMap.newKeySet();
+    private volatile boolean priorKnowledgeEnabled = false;
+
+    public ProtocolFallbackCallFactory(OkHttpClient client) {
+        this.client = client;
+        this.priorKnowledgeClient = client.newBuilder()
+                .protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE))
+                .addInterceptor(chain -> {
+                    try {
+                        return chain.proceed(chain.request());
+                    } catch (IOException e) {
+                        if (!chain.call().isCanceled() && h2cHosts.remove(hostKey(chain.request().url()))) {
+                            Log.d(TAG, "h2c请求失败，重新探测: " + hostKey(chain.request().url()) + ", " + e);
+                        }
+                        throw e;
+                    }
+                })
+                .build();
+        this.probeClient = priorKnowledgeClient.newBuilder()
+                .eventListenerFactory(call -> {
+                    Probe probe = call.request().tag(Probe.class);
+                    return probe != null ? probe : EventListener.NONE;
+                })
+                .build();
+    }
+
+    /**
+     * 是否对明文请求使用h2c prior knowledge
+     */
+    public void setPriorKnowledgeEnabled(boolean enabled) {
+        priorKnowledgeEnabled = enabled;
+    }
+
+    @Override
+    public Call newCall(Request request) {
+        if (!priorKnowledgeEnabled || request.isHttps()) {
+            return client.newCall(request);
+        }
+        if (isH2cHost(request.url())) {
+            return priorKnowledgeClient.newCall(request);
+        }
+        if (!isHttp1Host(request.url())) {
+            probe(request.url(), null);
+        }
+        return client.newCall(request);
+    }
+
+    /**
+     * 在后台探测服务器是否支持h2c，同一主机同时只探测一次
+     * @param url 服务器上的任意地址，只使用其主机和端口
+     * @param onFinished 探测结束后在OkHttp的线程中执行，可以为null
+     */
+    void probe(HttpUrl url, Runnable onFinished) {
+        String host = hostKey(url);
+        if (!probingHosts.add(host)) {
+            return;
+        }
+        Probe probe = new Probe(host, onFinished);
+        Request request = new Request.Builder()
+                .url(url.newBuilder().encodedPath("/").query(null).build())
+                .head()
+                .tag(Probe.class, probe)
+                .build();
+        probeClient.newCall(request).enqueue(probe);
+    }
+
+    boolean isH2cHost(HttpUrl url) {
+        return h2cHosts.contains(hostKey(url));
+    }
+
+    boolean isHttp1Host(HttpUrl url) {
+        String host = hostKey(url);
+        Long expiresAt = http1Hosts.get(host);
+        if (expiresAt == null) {
+            return false;
+        }
+        if (System.nanoTime() - expiresAt >= 0) {
+            http1Hosts.remove(host, expiresAt);
+            return false;
+        }
+        return true;
+    }
+
+    private static String hostKey(HttpUrl url) {
+        return url.host() + ":" + url.port();
+    }
+
+    /**
+     * 一次探测：记录是否建立了连接，并根据结果更新主机的状态
+     * 没有建立连接的失败（没有网络、连接被拒绝）与协议无关，不记住，下一个请求时重新探测
+     */
+    private class Probe extends EventListener implements Callback {
+        private final String host;
+        private final Runnable onFinished;
+        private volatile boolean connected = false;
+
+        Probe(String host, Runnable onFinished) {
+            this.host = host;
+            this.onFinished = onFinished;
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            connected = true;
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            response.close();
+            if (response.protocol() == Protocol.H2_PRIOR_KNOWLEDGE) {
+                Log.d(TAG, "服务器支持h2c: " + host);
+                h2cHosts.add(host);
+            }
+            finish();
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            if (connected) {
+                Log.d(TAG, "服务器不支持h2c，使用HTTP/1.1: " + host + ", " + e);
+                http1Hosts.put(host, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(HTTP1_HOST_TTL_MS));
+            } else {
+                Log.d(TAG, "h2c探测没有建立连接: " + host + ", " + e);
+            }
+            finish();
+        }
+
+        private void finish() {
+            probingHosts.remove(host);
+            if (onFinished != null) {
+                onFinished.run();
+            }
+        }
+    }
+}
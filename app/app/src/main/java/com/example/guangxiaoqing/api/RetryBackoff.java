@@ -0,0 +1,72 @@
+package com.example.guangxiaoqing.api;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+
+import okhttp3.Headers;
+
+/**
+ * 重试等待时间计算：指数退避加随机抖动，并遵守服务器的Retry-After
+ */
+public final class RetryBackoff {
+    // 第一次重试的基础等待时间
+    private static final long BASE_DELAY_MS = 500;
+    // 退避等待时间上限
+    private static final long MAX_DELAY_MS = 8_000;
+    // 服务器要求等待超过该时间时不再重试
+    public static final long MAX_RETRY_AFTER_MS = 30_000;
+
+    private RetryBackoff() {
+    }
+
+    /**
+     * 第attempt次重试（从1开始）的等待时间，带随机抖动
+     */
+    public static long exponential(int attempt) {
+        long delay = BASE_DELAY_MS << Math.min(Math.max(attempt - 1, 0), 10);
+        return jitter(Math.min(delay, MAX_DELAY_MS));
+    }
+
+    /**
+     * 在[delay/2, delay]之间随机取值，避免大量客户端同时重试
+     */
+    public static long jitter(long delayMillis) {
+        long half = delayMillis / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    /**
+     * 解析Retry-After响应头（秒数或HTTP日期）
+     * @return 需要等待的毫秒数，没有或无法解析时返回-1
+     */
+    public static long retryAfterMillis(Headers headers) {
+        String value = headers.get("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = headers.getDate("Retry-After");
+            if (date == null) {
+                return -1;
+            }
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 根据响应决定等待时间：有Retry-After时以它为准，否则使用指数退避
+     * @return 等待毫秒数，服务器要求等待过久时返回-1表示不再重试
+     */
+    public static long delayFor(Headers headers, int attempt) {
+        long retryAfter = headers != null ? retryAfterMillis(headers) : -1;
+        if (retryAfter > MAX_RETRY_AFTER_MS) {
+            return -1;
+        }
+        if (retryAfter >= 0) {
+            return retryAfter;
+        }
+        return exponential(attempt);
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.guangxiaoqing.api;
+
+/**
+ * 重试预算（令牌桶）
+ * 每次重试消耗1个令牌，每个成功的请求返还少量令牌；
+ * 后端持续故障时预算很快耗尽，客户端停止重试，不会放大服务器压力
+ */
+public class RetryBudget {
+    // 令牌上限，也是新登录会话的初始令牌数
+    private static final double MAX_TOKENS = 10;
+    // 每次重试消耗的令牌
+    private static final double RETRY_COST = 1;
+    // 每个成功请求返还的令牌
+    private static final double SUCCESS_REFUND = 0.1;
+
+    private double tokens = MAX_TOKENS;
+
+    /**
+     * 申请一次重试
+     * @return false表示预算已用完，不应再重试
+     */
+    public synchronized boolean tryAcquire() {
+        if (tokens < RETRY_COST) {
+            return false;
+        }
+        tokens -= RETRY_COST;
+        return true;
+    }
+
+    /**
+     * 记录一次成功的请求
+     */
+    public synchronized void onSuccess() {
+        tokens = Math.min(MAX_TOKENS, tokens + SUCCESS_REFUND);
+    }
+
+    /**
+     * 新的登录会话开始时恢复全部预算
+     */
+    public synchronized void reset() {
+        tokens = MAX_TOKENS;
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.guangxiaoqing.api;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Type;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Headers;
+import okhttp3.Request;
+import okio.Timeout;
+import retrofit2.Call;
+import retrofit2.CallAdapter;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+
+/**
+ * 非阻塞的重试层
+ * 只重试幂等请求（GET、HEAD、PUT、DELETE、OPTIONS）或带Idempotency-Key的请求，标记了@NoRetry的接口不重试；
+ * 等待时间在定时线程中计时，不占用OkHttp调度线程；所有重试共享同一个重试预算
+ */
+public class RetryCallAdapterFactory extends CallAdapter.Factory {
+    private static final String TAG = "RetryCallAdapter";
+    // 调用方标记请求可以安全重发的请求头
+    public static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+    // 包括第一次在内的最多尝试次数
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * 标记接口不自动重试，用于方法语义上幂等但实际上不能重复执行的请求（例如修改密码会使旧token失效）
+     */
+    @Documented
+    @Target(ElementType.METHOD)
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface NoRetry {
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final RetryBudget budget;
+
+    public RetryCallAdapterFactory(ScheduledExecutorService scheduler, RetryBudget budget) {
+        this.scheduler = scheduler;
+        this.budget = budget;
+    }
+
+    @Override
+    public CallAdapter<?, ?> get(Type returnType, Annotation[] annotations, Retrofit retrofit) {
+        if (getRawType(returnType) != Call.class) {
+            return null;
+        }
+        // 交给后面的适配器（例如切换到主线程回调），重试发生在它之前
+        @SuppressWarnings("unchecked")
+        CallAdapter<Object, Object> delegate =
+                (CallAdapter<Object, Object>) retrofit.nextCallAdapter(this, returnType, annotations);
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof NoRetry) {
+                return delegate;
+            }
+        }
+        return new CallAdapter<Object, Object>() {
+            @Override
+            public Type responseType() {
+                return delegate.responseType();
+            }
+
+            @Override
+            public Object adapt(Call<Object> call) {
+                return delegate.adapt(new RetryingCall<>(call));
+            }
+        };
+    }
+
+    /**
+     * 请求是否可以安全重发
+     */
+    static boolean isRetryable(Request request) {
+        switch (request.method()) {
+            case "GET":
+            case "HEAD":
+            case "PUT":
+            case "DELETE":
+            case "OPTIONS":
+                return true;
+            default:
+                return request.header(HEADER_IDEMPOTENCY_KEY) != null;
+        }
+    }
+
+    /**
+     * 响应状态码是否值得重试
+     */
+    static boolean isRetryableStatus(int code) {
+        return code == 408 || code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    private class RetryingCall<T> implements Call<T> {
+        private final Call<T> original;
+        private volatile Call<T> current;
+        private volatile ScheduledFuture<?> pendingRetry;
+        private volatile Callback<T> pendingCallback;
+        private volatile boolean canceled = false;
+
+        RetryingCall(Call<T> original) {
+            this.original = original;
+            this.current = original;
+        }
+
+        @Override
+        public void enqueue(Callback<T> callback) {
+            attempt(callback, 1);
+        }
+
+        private void attempt(Callback<T> callback, int attempt) {
+            current.enqueue(new Callback<T>() {
+                @Override
+                public void onResponse(Call<T> call, Response<T> response) {
+                    if (response.isSuccessful()) {
+                        budget.onSuccess();
+                    } else if (isRetryableStatus(response.code())
+                            && scheduleRetry(callback, attempt, response.headers())) {
+                        // 丢弃这次的错误响应，等待重试
+                        if (response.errorBody() != null) {
+                            response.errorBody().close();
+                        }
+                        return;
+                    }
+                    callback.onResponse(RetryingCall.this, response);
+                }
+
+                @Override
+                public void onFailure(Call<T> call, Throwable t) {
+                    // 超时说明服务器可能还在处理，只有连接层面的失败才重试
+                    boolean retryableFailure = t instanceof IOException && !(t instanceof InterruptedIOException);
+                    if (retryableFailure && scheduleRetry(callback, attempt, null)) {
+                        return;
+                    }
+                    callback.onFailure(RetryingCall.this, t);
+                }
+            });
+        }
+
+        /**
+         * 满足条件时安排下一次尝试
+         * @return false表示不再重试，应把结果交给调用方
+         */
+        private boolean scheduleRetry(Callback<T> callback, int attempt, Headers headers) {
+            Request request = original.request();
+            if (canceled || attempt >= MAX_ATTEMPTS || !isRetryable(request)) {
+                return false;
+            }
+            long delayMillis = RetryBackoff.delayFor(headers, attempt);
+            if (delayMillis < 0) {
+                Log.d(TAG, "服务器要求等待过久，不再重试: " + request.url());
+                return false;
+            }
+            if (!budget.tryAcquire()) {
+                Log.d(TAG, "重试预算已用完，不再重试: " + request.url());
+                return false;
+            }
+
+            Log.d(TAG, "[" + CorrelationId.of(request) + "] " + delayMillis + "毫秒后第" + attempt + "次重试: "
+                    + request.method() + " " + request.url());
+            current = nextAttempt();
+            pendingCallback = callback;
+            pendingRetry = scheduler.schedule(() -> {
+                if (canceled) {
+                    callback.onFailure(RetryingCall.this, new IOException("Canceled"));
+                    return;
+                }
+                attempt(callback, attempt + 1);
+            }, delayMillis, TimeUnit.MILLISECONDS);
+            return true;
+        }
+
+        @Override
+        public Response<T> execute() throws IOException {
+            // 同步调用在调用方线程执行，等待只会阻塞调用方自己
+            int attempt = 1;
+            while (true) {
+                Response<T> response;
+                try {
+                    response = current.execute();
+                } catch (IOException e) {
+                    if (e instanceof InterruptedIOException || !canRetrySync(attempt)) {
+                        throw e;
+                    }
+                    sleepBeforeRetry(RetryBackoff.exponential(attempt));
+                    attempt++;
+                    continue;
+                }
+                if (response.isSuccessful()) {
+                    budget.onSuccess();
+                    return response;
+                }
+                long delayMillis = RetryBackoff.delayFor(response.headers(), attempt);
+                if (!isRetryableStatus(response.code()) || delayMillis < 0 || !canRetrySync(attempt)) {
+                    return response;
+                }
+                if (response.errorBody() != null) {
+                    response.errorBody().close();
+                }
+                sleepBeforeRetry(delayMillis);
+                attempt++;
+            }
+        }
+
+        private boolean canRetrySync(int attempt) {
+            if (canceled || attempt >= MAX_ATTEMPTS || !isRetryable(original.request()) || !budget.tryAcquire()) {
+                return false;
+            }
+            current = nextAttempt();
+            return true;
+        }
+
+        /**
+         * 创建下一次尝试的请求
+         * Retrofit的clone会重新创建请求，这里立即创建并沿用第一次尝试的关联ID
+         */
+        private Call<T> nextAttempt() {
+            String requestId = original.request().header(CorrelationId.HEADER);
+            if (requestId == null) {
+                return current.clone();
+            }
+            return CorrelationId.reusing(requestId, () -> {
+                Call<T> next = current.clone();
+                next.request();
+                return next;
+            });
+        }
+
+        private void sleepBeforeRetry(long delayMillis) throws IOException {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("重试等待被中断");
+            }
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return original.isExecuted();
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+            ScheduledFuture<?> retry = pendingRetry;
+            if (retry != null && retry.cancel(false)) {
+                // 正在等待重试时取消，和OkHttp一样以失败回调通知调用方
+                pendingCallback.onFailure(this, new IOException("Canceled"));
+            }
+            current.cancel();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled || current.isCanceled();
+        }
+
+        @SuppressWarnings("CloneDoesntCallSuperClone")
+        @Override
+        public Call<T> clone() {
+            return new RetryingCall<>(original.clone());
+        }
+
+        @Override
+        public Request request() {
+            return original.request();
+        }
+
+        @Override
+        public Timeout timeout() {
+            return current.timeout();
+        }
+    }
+}
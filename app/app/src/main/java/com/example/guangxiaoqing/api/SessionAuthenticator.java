@@ -0,0 +1,69 @@
+package com.example.guangxiaoqing.api;
+
+import android.util.Log;
+
+import java.util.function.Supplier;
+
+import okhttp3.Authenticator;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.Route;
+
+/**
+ * 处理服务器返回的401
+ * 后端没有刷新token的接口，登录过期只能重新登录：
+ * 认证头已经更新（例如在其他页面重新登录过）时用新的认证头重发一次；
+ * 否则结束登录会话，同一个失效的认证头只处理一次，并发请求同时收到401时只执行一次退出流程
+ */
+public class SessionAuthenticator implements Authenticator {
+    private static final String TAG = "SessionAuthenticator";
+    // 修改密码接口在原密码错误时也返回401，由调用方根据错误信息处理
+    private static final String CHANGE_PASSWORD_PATH = "/users/password";
+
+    private final Supplier<String> authHeader;
+    private final Runnable onExpired;
+
+    /**
+     * @param authHeader 当前的认证头，未登录时为null
+     * @param onExpired 登录过期时执行，清除登录状态并通知界面
+     */
+    public SessionAuthenticator(Supplier<String> authHeader, Runnable onExpired) {
+        this.authHeader = authHeader;
+        this.onExpired = onExpired;
+    }
+
+    @Override
+    public Request authenticate(Route route, Response response) {
+        Request request = response.request();
+        String sent = request.header("Authorization");
+        // 不带认证头的请求（登录等）返回401表示账号或密码错误，不是登录过期
+        if (sent == null || request.url().encodedPath().endsWith(CHANGE_PASSWORD_PATH)) {
+            return null;
+        }
+        String current = onUnauthorized(sent);
+        if (current == null) {
+            return null;
+        }
+        Log.d(TAG, "[" + CorrelationId.of(request) + "] 认证头已更新，重发请求");
+        return request.newBuilder().header("Authorization", current).build();
+    }
+
+    /**
+     * 处理一次认证失败
+     * @param failedHeader 被服务器拒绝的认证头
+     * @return 可以用于重发的新认证头，为null表示需要重新登录
+     */
+    public synchronized String onUnauthorized(String failedHeader) {
+        String current = authHeader.get();
+        if (current == null) {
+            // 登录会话已被其他请求结束
+            return null;
+        }
+        if (!current.equals(failedHeader)) {
+            return current;
+        }
+        Log.d(TAG, "登录已过期，结束登录会话");
+        onExpired.run();
+        return null;
+    }
+}
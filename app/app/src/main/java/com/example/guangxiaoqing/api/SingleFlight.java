@@ -0,0 +1,131 @@
+package com.example.guangxiaoqing.api;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * 进行中请求的去重
+ * 按接口和规范化的请求体（手写编解码器输出的JSON，字段顺序固定）的SHA-256摘要标识请求，
+ * 登录、注册等请求体中的明文密码不会留在内存的表中；
+ * 相同的请求还在进行时，后来的调用方不再发送，而是等待同一个结果，
+ * 避免连点时重复发送验证码、重复登录，或者为同一个问题重复生成回答
+ */
+public final class SingleFlight {
+    private static final String TAG = "SingleFlight";
+    private static final Gson GSON = ModelTypeAdapters.createGson();
+
+    private final Map<String, List<NetworkCallback<?>>> calls = new HashMap<>();
+    private final Map<String, ChatFanout> chats = new HashMap<>();
+
+    /**
+     * 请求的去重键
+     * @param endpoint 接口路径
+     * @param body 请求体
+     */
+    public static String key(String endpoint, Object body) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // 所有Java平台都必须支持SHA-256
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(GSON.toJson(body).getBytes(StandardCharsets.UTF_8));
+        StringBuilder key = new StringBuilder(endpoint.length() + 1 + hash.length * 2).append(endpoint).append('\n');
+        for (byte b : hash) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * 加入一个普通请求
+     * @param key 去重键
+     * @param callback 调用方的回调
+     * @return 发送请求时使用的回调，结果会交给所有等待的调用方；
+     *         返回null表示相同的请求已在进行，调用方不应再发送
+     */
+    public synchronized <T> NetworkCallback<T> join(String key, NetworkCallback<T> callback) {
+        List<NetworkCallback<?>> waiters = calls.get(key);
+        if (waiters != null) {
+            waiters.add(callback);
+            Log.d(TAG, "相同的请求正在进行，等待其结果: " + endpointOf(key));
+            return null;
+        }
+        waiters = new ArrayList<>();
+        waiters.add(callback);
+        calls.put(key, waiters);
+        return new NetworkCallback<T>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void onSuccess(T response) {
+                for (NetworkCallback<?> waiter : finish(key)) {
+                    ((NetworkCallback<T>) waiter).onSuccess(response);
+                }
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                for (NetworkCallback<?> waiter : finish(key)) {
+                    waiter.onError(errorMessage);
+                }
+            }
+        };
+    }
+
+    /**
+     * 加入一次聊天回答
+     * 相同的回答还在生成时，新的调用方先收到已生成部分的回放，之后与其他调用方同步接收；
+     * 每个调用方有自己的取消句柄，所有调用方都取消后立即移除并取消底层的请求
+     * @param key 去重键
+     * @param callback 调用方的回调
+     * @param callbackExecutor 回调执行器，与会话使用的相同
+     * @param newSession 需要发送新请求时创建会话，参数是分发给所有调用方的回调
+     * @return 调用方的取消句柄
+     */
+    public synchronized ChatStreamHandle joinChat(String key, ChatStreamCallback callback, Executor callbackExecutor,
+                                                  Function<ChatStreamCallback, ChatStreamSession> newSession) {
+        ChatFanout fanout = chats.get(key);
+        if (fanout != null) {
+            // 最后一个调用方可能刚刚取消，已关闭的回答不能再加入
+            ChatStreamHandle handle = fanout.subscribe(callback, callbackExecutor);
+            if (handle != null) {
+                Log.d(TAG, "[" + fanout.getRequestId() + "] 相同的问题正在回答，共享同一个回答");
+                return handle;
+            }
+        }
+
+        ChatFanout created = new ChatFanout(closed -> finishChat(key, closed));
+        chats.put(key, created);
+        ChatStreamSession session = newSession.apply(created);
+        created.setRequestId(session.getRequestId());
+        ChatStreamHandle handle = created.subscribe(callback, callbackExecutor);
+        created.setUpstream(session.start());
+        return handle;
+    }
+
+    private synchronized List<NetworkCallback<?>> finish(String key) {
+        List<NetworkCallback<?>> waiters = calls.remove(key);
+        return waiters != null ? waiters : new ArrayList<>();
+    }
+
+    private synchronized void finishChat(String key, ChatFanout fanout) {
+        // 只移除结束的这个回答，相同的问题可能已经开始了新的回答
+        chats.remove(key, fanout);
+    }
+
+    private static String endpointOf(String key) {
+        return key.substring(0, key.indexOf('\n'));
+    }
+}
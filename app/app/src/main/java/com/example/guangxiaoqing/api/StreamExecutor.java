@@ -0,0 +1,103 @@
+package com.example.guangxiaoqing.api;
+
+import android.os.Process;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 全局流式响应执行器
+ * 所有聊天流读取任务共享固定数量的命名后台线程，避免每次请求都创建新线程；
+ * 线程都是守护线程，空闲后自动结束，进程被系统结束时不需要额外清理
+ */
+public final class StreamExecutor {
+    // 同时读取的流式响应数量上限
+    private static final int MAX_CONCURRENT_STREAMS = 2;
+    // 排队等待读取的流式响应数量上限，超出时拒绝新任务
+    private static final int MAX_QUEUED_STREAMS = 4;
+    // 空闲线程的存活时间
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    // 读取线程优先级：低于UI线程，但比普通后台任务略高，保证回答及时显示
+    private static final int STREAM_THREAD_PRIORITY =
+            Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE;
+
+    private static ThreadPoolExecutor executor;
+    // 重连等待使用的定时线程，等待期间不占用读取线程
+    private static ScheduledThreadPoolExecutor scheduler;
+
+    private StreamExecutor() {
+    }
+
+    /**
+     * 提交一个流式读取任务
+     * 使用execute而不是submit：submit会把任务包装成FutureTask并吞掉其中的异常，读取失败时界面永远收不到结束回调
+     * @param task 读取任务，应自行处理异常并通知调用方
+     * @throws RejectedExecutionException 并发和排队数量都已达到上限时抛出
+     */
+    public static void execute(Runnable task) {
+        getExecutor().execute(task);
+    }
+
+    /**
+     * 延迟执行一个任务，用于连接中断后的重连
+     * @param task 任务
+     * @param delayMillis 延迟毫秒数
+     * @return 任务的Future，可用于取消
+     */
+    public static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return getScheduler().schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                    MAX_CONCURRENT_STREAMS,
+                    MAX_CONCURRENT_STREAMS,
+                    KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(MAX_QUEUED_STREAMS),
+                    new StreamThreadFactory());
+            // 没有流式响应时不保留空闲线程
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getScheduler() {
+        if (scheduler == null) {
+            ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "chat-stream-retry");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // 取消的重连任务立即移出队列
+            pool.setRemoveOnCancelPolicy(true);
+            scheduler = pool;
+        }
+        return scheduler;
+    }
+
+    /**
+     * 创建命名的、指定优先级的读取线程
+     */
+    private static class StreamThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(STREAM_THREAD_PRIORITY);
+                runnable.run();
+            }, "chat-stream-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.guangxiaoqing.api;
+
+import java.io.IOException;
+
+import okio.Buffer;
+
+/**
+ * 流式UTF-8解码器，按okio段批量解码响应体
+ * 跨读取边界被截断的多字节字符会暂存，等下一段数据到达后再解码
+ */
+public class Utf8ChunkDecoder {
+    // 暂存尚未解码的字节（最多包含一个不完整字符的前几个字节）
+    private final Buffer pending = new Buffer();
+
+    /**
+     * 解码输入缓冲区中的全部字节
+     * 输入缓冲区的段会被直接移动到内部缓冲区，不做额外拷贝
+     * @param input 新到达的字节
+     * @return 可以安全输出的完整文本，没有完整字符时返回空字符串
+     */
+    public String decode(Buffer input) throws IOException {
+        pending.writeAll(input);
+        long complete = completePrefixLength(pending);
+        if (complete == 0) {
+            return "";
+        }
+        return pending.readUtf8(complete);
+    }
+
+    /**
+     * 流结束时调用，输出剩余的字节
+     * 不完整的字符会按UTF-8规则替换为U+FFFD
+     * @return 剩余文本，没有剩余字节时返回空字符串
+     */
+    public String finish() throws IOException {
+        if (pending.size() == 0) {
+            return "";
+        }
+        return pending.readUtf8();
+    }
+
+    /**
+     * 计算缓冲区中以完整字符结尾的前缀长度
+     * 只需从末尾向前检查最多4个字节即可找到最后一个字符的起始字节
+     */
+    static long completePrefixLength(Buffer buffer) {
+        long size = buffer.size();
+        for (long i = size - 1; i >= 0 && i >= size - 4; i--) {
+            int b = buffer.getByte(i) & 0xff;
+            if ((b & 0xc0) == 0x80) {
+                // 续字节，继续向前寻找起始字节
+                continue;
+            }
+            int expected;
+            if (b < 0x80) {
+                expected = 1;
+            } else if ((b & 0xe0) == 0xc0) {
+                expected = 2;
+            } else if ((b & 0xf0) == 0xe0) {
+                expected = 3;
+            } else if ((b & 0xf8) == 0xf0) {
+                expected = 4;
+            } else {
+                // 非法起始字节，交给readUtf8替换处理
+                expected = 1;
+            }
+            return size - i >= expected ? size : i;
+        }
+        // 末尾全是续字节，属于非法序列，直接整体解码
+        return size;
+    }
+}
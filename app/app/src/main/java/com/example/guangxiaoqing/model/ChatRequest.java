@@ -4,10 +4,15 @@ import java.util.List;
 
 /**
  * 聊天请求模型，对应后端的chat接口
+ * 完整请求携带历史消息；会话模式下只携带本轮问题、会话ID和轮次序号，历史由服务器保存
  */
 public class ChatRequest {
     private String content;
     private List<ChatMessage> history;
+    // 服务器分配的会话ID，为null时表示完整上传
+    private String conversation_id;
+    // 本轮在会话中的序号，从1开始
+    private Integer turn_seq;
 
     public ChatRequest(String content) {
         this.content = content;
@@ -18,6 +23,16 @@ public class ChatRequest {
         this.history = history;
     }
 
+    /**
+     * 会话模式的增量请求，只包含本轮问题
+     */
+    public static ChatRequest delta(String content, String conversationId, int turnSeq) {
+        ChatRequest request = new ChatRequest(content);
+        request.conversation_id = conversationId;
+        request.turn_seq = turnSeq;
+        return request;
+    }
+
     public String getContent() {
         return content;
     }
@@ -33,4 +48,16 @@ public class ChatRequest {
     public void setHistory(List<ChatMessage> history) {
         this.history = history;
     }
-}
\ No newline at end of file
+
+    public String getConversationId() {
+        return conversation_id;
+    }
+
+    public Integer getTurnSeq() {
+        return turn_seq;
+    }
+
+    public void setTurnSeq(Integer turnSeq) {
+        this.turn_seq = turnSeq;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.guangxiaoqing.model;
+
+/**
+ * 回答引用的参考来源，对应流式事件中的sources
+ */
+public class ChatSource {
+    private String title;
+    private String url;
+    private String snippet;
+
+    public ChatSource(String title, String url, String snippet) {
+        this.title = title;
+        this.url = url;
+        this.snippet = snippet;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getSnippet() {
+        return snippet;
+    }
+
+    public void setSnippet(String snippet) {
+        this.snippet = snippet;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.guangxiaoqing.model;
+
+/**
+ * 一次回答的token用量，对应流式事件中done携带的usage
+ */
+public class ChatUsage {
+    private int prompt_tokens;
+    private int completion_tokens;
+    private int total_tokens;
+
+    public ChatUsage(int promptTokens, int completionTokens, int totalTokens) {
+        this.prompt_tokens = promptTokens;
+        this.completion_tokens = completionTokens;
+        this.total_tokens = totalTokens;
+    }
+
+    public int getPromptTokens() {
+        return prompt_tokens;
+    }
+
+    public void setPromptTokens(int promptTokens) {
+        this.prompt_tokens = promptTokens;
+    }
+
+    public int getCompletionTokens() {
+        return completion_tokens;
+    }
+
+    public void setCompletionTokens(int completionTokens) {
+        this.completion_tokens = completionTokens;
+    }
+
+    public int getTotalTokens() {
+        return total_tokens;
+    }
+
+    public void setTotalTokens(int totalTokens) {
+        this.total_tokens = totalTokens;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.guangxiaoqing.utils;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * 监听网络连接恢复
+ * 注册系统的默认网络回调，不需要轮询；默认网络可以访问互联网时在主线程通知
+ */
+public class ConnectivityWatcher {
+    private static final String TAG = "ConnectivityWatcher";
+
+    private final ConnectivityManager connectivityManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private ConnectivityManager.NetworkCallback networkCallback;
+    // 上次通知后网络是否一直可用，信号强度等变化不重复通知
+    private volatile boolean available = false;
+
+    public ConnectivityWatcher(Context context) {
+        this.connectivityManager = context.getSystemService(ConnectivityManager.class);
+    }
+
+    /**
+     * 开始监听，注册时已经有网络也会通知一次
+     * @param onAvailable 网络可用时在主线程执行
+     */
+    public void start(Runnable onAvailable) {
+        if (connectivityManager == null || networkCallback != null) {
+            return;
+        }
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                // 验证过的网络才通知，连上需要认证的校园WiFi时不会提前发送
+                boolean usable = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                        && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+                if (usable && !available) {
+                    Log.d(TAG, "网络可用");
+                    mainHandler.post(onAvailable);
+                }
+                available = usable;
+            }
+
+            @Override
+            public void onLost(Network network) {
+                Log.d(TAG, "网络断开");
+                available = false;
+            }
+        };
+        connectivityManager.registerDefaultNetworkCallback(networkCallback);
+    }
+
+    /**
+     * 停止监听
+     */
+    public void stop() {
+        if (connectivityManager != null && networkCallback != null) {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
+        }
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+}
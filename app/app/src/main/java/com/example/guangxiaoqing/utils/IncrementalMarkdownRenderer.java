@@ -0,0 +1,87 @@
+package com.example.guangxiaoqing.utils;
+
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+
+/**
+ * 流式回答的增量Markdown渲染
+ * 每条消息保存一个实例：已经稳定的前缀（之后到达的文本不会再改变其格式）只解析一次，
+ * 格式化结果保留在SpannableStringBuilder中，之后每次更新只重新解析最后一个稳定边界之后的部分，
+ * 整个回答的解析开销与回答长度成正比，而不是每收到一段就从头解析一遍
+ *
+ * 稳定边界由MarkdownTokenizer在分词时给出，与格式化使用同一套规则；
+ * 边界两侧分别用MarkdownHelper.formatMarkdown格式化，结果与整体格式化一致
+ */
+public class IncrementalMarkdownRenderer {
+    private final SpannableStringBuilder output = new SpannableStringBuilder();
+    // 已稳定部分的原文
+    private final StringBuilder stableSource = new StringBuilder();
+    // 已稳定部分格式化后在output中的长度
+    private int stableOutputLength = 0;
+
+    /**
+     * 格式化消息的当前全文
+     * 新文本以已稳定的原文开头时只解析新增部分，否则（回答被清空重来、消息被改写）从头解析
+     * @param text 消息全文
+     * @param unchangedLength 调用方保证text的前unchangedLength个字符与上一次调用时相同（只在末尾追加时为上一次的长度），
+     *                        只比较之后的部分，每次更新的开销不随已稳定部分的长度增长
+     * @return 格式化后的文本，下一次调用时会被修改，调用方不应保留
+     */
+    public Spannable render(String text, int unchangedLength) {
+        if (text == null) {
+            text = "";
+        }
+        if (!startsWithStable(text, unchangedLength)) {
+            reset();
+        }
+
+        int start = stableSource.length();
+        int boundary = stableBoundary(text, start);
+        // 丢弃上次未稳定部分的格式化结果
+        output.delete(stableOutputLength, output.length());
+        if (boundary > start) {
+            String newlyStable = text.substring(start, boundary);
+            output.append(MarkdownHelper.formatMarkdown(newlyStable));
+            stableSource.append(newlyStable);
+            stableOutputLength = output.length();
+        }
+        if (boundary < text.length()) {
+            output.append(MarkdownHelper.formatMarkdown(text.substring(boundary)));
+        }
+        return output;
+    }
+
+    /**
+     * 清除渲染状态
+     */
+    public void reset() {
+        output.clear();
+        output.clearSpans();
+        stableSource.setLength(0);
+        stableOutputLength = 0;
+    }
+
+    private boolean startsWithStable(String text, int unchangedLength) {
+        int length = stableSource.length();
+        if (text.length() < length) {
+            return false;
+        }
+        for (int i = length - 1; i >= unchangedLength; i--) {
+            // 从后向前比较，改写通常发生在末尾附近
+            if (text.charAt(i) != stableSource.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 从from开始分词，找到最后一个稳定边界
+     * @param text 全文
+     * @param from 已知的稳定边界（行首）
+     * @return 最后一个稳定边界，没有新的边界时返回from
+     */
+    static int stableBoundary(String text, int from) {
+        return from + MarkdownTokenizer.tokenize(text.substring(from)).getStableLength();
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.guangxiaoqing.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 把消息按块分段：普通文本、行内数学表达式（$...$）、独立数学表达式（$$...$$）和代码块（```）
+ * 文本段之后交给MarkdownHelper格式化，其余各段分别用数学表达式视图和代码视图显示
+ *
+ * 规则：代码块以行首的```开始，到下一个行首的```结束，没有结束标记时到文本末尾，代码块内不识别其他标记；
+ * $$到下一个$$之间是独立数学表达式；$到同一行内的下一个$之间是行内数学表达式；没有闭合的$按普通字符显示；
+ * 没有数学表达式和代码块时整条消息是一个文本段（保持原样），否则去掉文本段两端的换行，省略空的文本段
+ */
+public final class MarkdownBlockSplitter {
+
+    private static final String FENCE = "```";
+    private static final String DISPLAY_MATH = "$$";
+
+    /**
+     * 分段类型
+     */
+    public enum Type {
+        TEXT,
+        INLINE_MATH,
+        DISPLAY_MATH,
+        CODE
+    }
+
+    /**
+     * 一个分段，content为去掉标记后的原文
+     */
+    public static final class Block {
+        private final Type type;
+        private final String content;
+
+        Block(Type type, String content) {
+            this.type = type;
+            this.content = content;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getContent() {
+            return content;
+        }
+    }
+
+    private MarkdownBlockSplitter() {
+    }
+
+    /**
+     * 分段，与文本长度成线性关系
+     * @param text 消息原文
+     * @return 按顺序排列的分段
+     */
+    public static List<Block> split(String text) {
+        return split(text, 0);
+    }
+
+    /**
+     * 只对from之后的部分分段，与文本长度成线性关系
+     * from是stableBoundary返回的边界时，结果接在边界之前的分段之后与整体分段一致
+     * @param text 消息原文
+     * @param from 开始分段的位置，为0时与split(text)相同
+     * @return 按顺序排列的分段，from不为0时文本段两端的换行也会去掉，可能为空列表
+     */
+    public static List<Block> split(String text, int from) {
+        List<Block> blocks = new ArrayList<>();
+        int length = text.length();
+        int textStart = from;
+        int pos = from;
+        // 之后已经没有$$时不再查找，避免大量未闭合的$$重复扫描
+        boolean displayClosable = true;
+        while (pos < length) {
+            char c = text.charAt(pos);
+            if (c == '`' && isLineStart(text, pos) && text.startsWith(FENCE, pos)) {
+                // 代码块：第一行```之后的内容是语言名称，不显示
+                int contentStart = Math.min(lineEnd(text, pos) + 1, length);
+                int close = findFence(text, contentStart);
+                int contentEnd = close == -1 ? length : close;
+                addText(blocks, text, textStart, pos);
+                blocks.add(new Block(Type.CODE, trimNewlines(text, contentStart, contentEnd)));
+                pos = close == -1 ? length : Math.min(lineEnd(text, close) + 1, length);
+                textStart = pos;
+                continue;
+            }
+            if (c == '$') {
+                if (text.startsWith(DISPLAY_MATH, pos)) {
+                    int close = displayClosable ? text.indexOf(DISPLAY_MATH, pos + 2) : -1;
+                    if (close == -1) {
+                        displayClosable = false;
+                        pos += 2;
+                        continue;
+                    }
+                    if (close == pos + 2) {
+                        // 空的$$$$按普通字符显示
+                        pos = close + 2;
+                        continue;
+                    }
+                    addText(blocks, text, textStart, pos);
+                    blocks.add(new Block(Type.DISPLAY_MATH, text.substring(pos + 2, close)));
+                    pos = close + 2;
+                    textStart = pos;
+                    continue;
+                }
+                int close = text.indexOf('$', pos + 1);
+                // 闭合的$必须在同一行，只在两个$之间查找换行，不扫描到行首
+                if (close != -1 && !hasNewline(text, pos + 1, close)) {
+                    addText(blocks, text, textStart, pos);
+                    blocks.add(new Block(Type.INLINE_MATH, text.substring(pos + 1, close)));
+                    pos = close + 1;
+                    textStart = pos;
+                    continue;
+                }
+            }
+            pos++;
+        }
+        if (blocks.isEmpty() && from == 0) {
+            // 没有数学表达式和代码块
+            return Collections.singletonList(new Block(Type.TEXT, text));
+        }
+        addText(blocks, text, textStart, length);
+        return blocks;
+    }
+
+    /**
+     * 流式接收时从from开始扫描，找到最后一个稳定边界，边界之前新确定的分段按顺序添加到stable中
+     * 稳定边界是已闭合的数学表达式或代码块的结束位置，或者代码块的开始位置，之后到达的文本不会再改变边界之前的分段；
+     * 扫描规则与split相同，遇到没有闭合的$$和代码块时停止，它们之后的分段可能随着结束标记的到达而改变；
+     * 没有闭合的$之后没有其他$，所在行结束之前也不会有新的分段，不需要停止
+     * @param text 全文
+     * @param from 上一次的稳定边界
+     * @param stable 用于接收新确定的分段
+     * @return 最后一个稳定边界，没有新的边界时返回from
+     */
+    public static int stableBoundary(String text, int from, List<Block> stable) {
+        int length = text.length();
+        int boundary = from;
+        int pos = from;
+        while (pos < length) {
+            char c = text.charAt(pos);
+            if (c == '`' && isLineStart(text, pos) && text.startsWith(FENCE, pos)) {
+                // 代码块之前的文本已经确定，代码块到结束标记所在行的换行才确定
+                addText(stable, text, boundary, pos);
+                boundary = pos;
+                int firstLineEnd = text.indexOf('\n', pos);
+                int close = firstLineEnd == -1 ? -1 : findFence(text, firstLineEnd + 1);
+                int closeLineEnd = close == -1 ? -1 : text.indexOf('\n', close);
+                if (closeLineEnd == -1) {
+                    break;
+                }
+                stable.add(new Block(Type.CODE, trimNewlines(text, firstLineEnd + 1, close)));
+                pos = closeLineEnd + 1;
+                boundary = pos;
+                continue;
+            }
+            if (c == '$') {
+                if (text.startsWith(DISPLAY_MATH, pos)) {
+                    int close = text.indexOf(DISPLAY_MATH, pos + 2);
+                    if (close == -1) {
+                        break;
+                    }
+                    if (close > pos + 2) {
+                        addText(stable, text, boundary, pos);
+                        stable.add(new Block(Type.DISPLAY_MATH, text.substring(pos + 2, close)));
+                        boundary = close + 2;
+                    }
+                    pos = close + 2;
+                    continue;
+                }
+                int close = text.indexOf('$', pos + 1);
+                if (close != -1 && !hasNewline(text, pos + 1, close)) {
+                    addText(stable, text, boundary, pos);
+                    stable.add(new Block(Type.INLINE_MATH, text.substring(pos + 1, close)));
+                    pos = close + 1;
+                    boundary = pos;
+                    continue;
+                }
+            }
+            pos++;
+        }
+        return boundary;
+    }
+
+    private static void addText(List<Block> blocks, String text, int start, int end) {
+        String content = trimNewlines(text, start, end);
+        if (!content.isEmpty()) {
+            blocks.add(new Block(Type.TEXT, content));
+        }
+    }
+
+    private static String trimNewlines(String text, int start, int end) {
+        while (start < end && isNewline(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && isNewline(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(start, end);
+    }
+
+    private static boolean isNewline(char c) {
+        return c == '\n' || c == '\r';
+    }
+
+    private static boolean hasNewline(String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLineStart(String text, int pos) {
+        return pos == 0 || text.charAt(pos - 1) == '\n';
+    }
+
+    private static int lineEnd(String text, int pos) {
+        int end = text.indexOf('\n', pos);
+        return end == -1 ? text.length() : end;
+    }
+
+    /**
+     * 从from开始查找行首的```，找不到时返回-1
+     */
+    private static int findFence(String text, int from) {
+        int lineStart = from;
+        while (lineStart < text.length()) {
+            if (text.startsWith(FENCE, lineStart)) {
+                return lineStart;
+            }
+            int end = text.indexOf('\n', lineStart);
+            if (end == -1) {
+                return -1;
+            }
+            lineStart = end + 1;
+        }
+        return -1;
+    }
+}
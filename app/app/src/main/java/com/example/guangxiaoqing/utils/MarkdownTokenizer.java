@@ -0,0 +1,474 @@
+package com.example.guangxiaoqing.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 单遍Markdown分词器
+ * 从头到尾扫描一次原文，同时识别标题（# 到 ######）、加粗（**）、思考（&lt;think&gt;）和数学表达式（$），
+ * 输出去掉标记后的显示文本和一个扁平的节点列表，每个节点带有显示文本和原文中的位置；
+ * MarkdownHelper只根据节点列表设置样式，不再用正则去掉标题后再用indexOf找回标题的位置
+ *
+ * 规则与之前的实现相同：标题在行首识别，先于行内标记；行内标记按$、**、&lt;think&gt;的顺序检查，
+ * 没有闭合标记时按普通字符显示；标记内部的文本不再识别其他行内标记；
+ * 闭合标记的位置预先从后向前计算，整个过程与文本长度成线性关系
+ */
+public final class MarkdownTokenizer {
+
+    // 匹配分数表达式的正则表达式（\frac{分子}{分母}）
+    static final Pattern FRAC_PATTERN = Pattern.compile("\\\\frac\\{([^{}]+)\\}\\{([^{}]+)\\}");
+
+    private static final String THINK_OPEN = "<think>";
+    private static final String THINK_CLOSE = "</think>";
+
+    /**
+     * 节点类型
+     */
+    public enum Type {
+        // 块级：标题，level为1到6
+        HEADING,
+        // 行内：加粗
+        BOLD,
+        // 行内：思考过程
+        THINK,
+        // 行内：数学表达式，mathContent为$之间的原文
+        MATH
+    }
+
+    /**
+     * 一个节点，start和end是显示文本中的范围，sourceStart和sourceEnd是原文中的范围（含标记）
+     */
+    public static final class Token {
+        private final Type type;
+        private final int start;
+        private final int end;
+        private final int sourceStart;
+        private final int sourceEnd;
+        private final int level;
+        private final String mathContent;
+
+        Token(Type type, int start, int end, int sourceStart, int sourceEnd, int level, String mathContent) {
+            this.type = type;
+            this.start = start;
+            this.end = end;
+            this.sourceStart = sourceStart;
+            this.sourceEnd = sourceEnd;
+            this.level = level;
+            this.mathContent = mathContent;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public int getSourceStart() {
+            return sourceStart;
+        }
+
+        public int getSourceEnd() {
+            return sourceEnd;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public String getMathContent() {
+            return mathContent;
+        }
+    }
+
+    /**
+     * 分词结果：显示文本和按出现顺序排列的节点
+     */
+    public static final class Document {
+        private final String text;
+        private final List<Token> tokens;
+        private final int stableLength;
+
+        Document(String text, List<Token> tokens, int stableLength) {
+            this.text = text;
+            this.tokens = Collections.unmodifiableList(tokens);
+            this.stableLength = stableLength;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public List<Token> getTokens() {
+            return tokens;
+        }
+
+        /**
+         * 原文中最后一个稳定边界：之前的标记都已闭合、不在行内标记或标题中的行首，
+         * 原文之后追加任何文本都不会改变边界之前的分词结果，边界两侧分别分词的结果与整体分词一致
+         */
+        int getStableLength() {
+            return stableLength;
+        }
+    }
+
+    private enum Mode {
+        TEXT, BOLD, THINK, MATH
+    }
+
+    private MarkdownTokenizer() {
+    }
+
+    /**
+     * 分词
+     * @param source 原文
+     * @return 显示文本和节点
+     */
+    public static Document tokenize(String source) {
+        int length = source.length();
+        int[] nextDollar = new int[length + 1];
+        int[] nextStars = new int[length + 1];
+        int[] nextThinkClose = new int[length + 1];
+        nextDollar[length] = -1;
+        nextStars[length] = -1;
+        nextThinkClose[length] = -1;
+        for (int i = length - 1; i >= 0; i--) {
+            nextDollar[i] = source.charAt(i) == '$' ? i : nextDollar[i + 1];
+            nextStars[i] = source.startsWith("**", i) ? i : nextStars[i + 1];
+            nextThinkClose[i] = source.startsWith(THINK_CLOSE, i) ? i : nextThinkClose[i + 1];
+        }
+
+        StringBuilder out = new StringBuilder(length);
+        List<Token> tokens = new ArrayList<>();
+        Mode mode = Mode.TEXT;
+        // 当前行内标记的闭合位置、开始位置（原文和显示文本）
+        int closeAt = -1;
+        int inlineSourceStart = 0;
+        int inlineStart = 0;
+        // 数学表达式去掉标题标记后的原文
+        StringBuilder math = new StringBuilder();
+        // 思考内容开头的第一个换行不显示
+        boolean thinkContentStart = false;
+
+        // 当前标题：级别、开始位置和所在行的结束位置，没有时level为0
+        int headingLevel = 0;
+        int headingStart = 0;
+        int headingSourceStart = 0;
+        int headingLineEnd = 0;
+        boolean headingInMath = false;
+
+        // 最后一个稳定边界；遇到没有闭合的标记后，之后的文本可能随着闭合标记的到达而改变，不再有新的边界
+        int stableLength = 0;
+        boolean unclosed = false;
+
+        boolean lineStart = true;
+        int pos = 0;
+        while (pos < length) {
+            if (headingLevel > 0 && pos == headingLineEnd) {
+                addHeading(tokens, headingLevel, headingStart, out.length(), headingSourceStart, pos,
+                        headingInMath || mode == Mode.MATH);
+                headingLevel = 0;
+            }
+            if (lineStart) {
+                lineStart = false;
+                if (mode == Mode.TEXT && !unclosed) {
+                    stableLength = pos;
+                }
+                int contentStart = headingContentStart(source, pos);
+                if (contentStart == -1 && isBareHeadingMarker(source, pos)) {
+                    // 只有#和空白：标题的\s+可以跨过之后的空行，下一个非空行到达后才是标题内容
+                    unclosed = true;
+                }
+                if (contentStart != -1) {
+                    headingLevel = countHashes(source, pos);
+                    headingSourceStart = pos;
+                    headingStart = out.length();
+                    headingLineEnd = lineEnd(source, contentStart);
+                    // 数学表达式的显示文本在闭合时才生成，其中的标题无法定位，不设置标题样式
+                    headingInMath = mode == Mode.MATH;
+                    pos = contentStart;
+                    continue;
+                }
+            }
+
+            char c = source.charAt(pos);
+            switch (mode) {
+                case TEXT:
+                    if (c == '$' || (c == '*' && pos + 1 < length && source.charAt(pos + 1) == '*')
+                            || (c == '<' && source.startsWith(THINK_OPEN, pos))) {
+                        // 开始标记：闭合时进入对应的模式，没有闭合时按普通字符显示，但之后不再是稳定边界
+                        unclosed |= !closable(c, pos, length, nextDollar, nextStars, nextThinkClose);
+                    }
+                    if (c == '$' && pos + 1 <= length && nextDollar[pos + 1] != -1) {
+                        mode = Mode.MATH;
+                        closeAt = nextDollar[pos + 1];
+                        inlineSourceStart = pos;
+                        inlineStart = out.length();
+                        math.setLength(0);
+                        pos++;
+                        continue;
+                    }
+                    if (c == '*' && pos + 1 < length && source.charAt(pos + 1) == '*' && nextStars[pos + 2] != -1) {
+                        mode = Mode.BOLD;
+                        closeAt = nextStars[pos + 2];
+                        inlineSourceStart = pos;
+                        inlineStart = out.length();
+                        pos += 2;
+                        continue;
+                    }
+                    if (c == '<' && source.startsWith(THINK_OPEN, pos)
+                            && nextThinkClose[pos + THINK_OPEN.length()] != -1) {
+                        mode = Mode.THINK;
+                        closeAt = nextThinkClose[pos + THINK_OPEN.length()];
+                        inlineSourceStart = pos;
+                        inlineStart = out.length();
+                        thinkContentStart = true;
+                        pos += THINK_OPEN.length();
+                        continue;
+                    }
+                    break;
+                case BOLD:
+                    if (pos == closeAt) {
+                        pos += 2;
+                        tokens.add(new Token(Type.BOLD, inlineStart, out.length(), inlineSourceStart, pos, 0, null));
+                        mode = Mode.TEXT;
+                        continue;
+                    }
+                    break;
+                case THINK:
+                    if (pos == closeAt) {
+                        pos += THINK_CLOSE.length();
+                        tokens.add(new Token(Type.THINK, inlineStart, out.length(), inlineSourceStart, pos, 0, null));
+                        mode = Mode.TEXT;
+                        continue;
+                    }
+                    if (thinkContentStart) {
+                        thinkContentStart = false;
+                        if (c == '\n') {
+                            lineStart = true;
+                            pos++;
+                            continue;
+                        }
+                    }
+                    break;
+                case MATH:
+                    if (pos == closeAt) {
+                        pos++;
+                        String content = math.toString();
+                        out.append(processMathSymbols(content));
+                        tokens.add(new Token(Type.MATH, inlineStart, out.length(), inlineSourceStart, pos, 0, content));
+                        mode = Mode.TEXT;
+                        continue;
+                    }
+                    math.append(c);
+                    lineStart = c == '\n';
+                    pos++;
+                    continue;
+                default:
+                    break;
+            }
+
+            // 普通字符，或者没有闭合标记的开始标记
+            out.append(c);
+            lineStart = c == '\n';
+            pos++;
+        }
+        if (headingLevel > 0) {
+            addHeading(tokens, headingLevel, headingStart, out.length(), headingSourceStart, length,
+                    headingInMath || mode == Mode.MATH);
+        }
+        if (lineStart && mode == Mode.TEXT && !unclosed) {
+            stableLength = length;
+        }
+        return new Document(out.toString(), tokens, stableLength);
+    }
+
+    /**
+     * pos处的开始标记（$、**或&lt;think&gt;）在原文中是否有闭合标记
+     */
+    private static boolean closable(char c, int pos, int length, int[] nextDollar, int[] nextStars,
+                                    int[] nextThinkClose) {
+        switch (c) {
+            case '$':
+                return nextDollar[pos + 1] != -1;
+            case '*':
+                return nextStars[pos + 2] != -1;
+            default:
+                return nextThinkClose[pos + THINK_OPEN.length()] != -1;
+        }
+    }
+
+    private static void addHeading(List<Token> tokens, int level, int start, int end, int sourceStart, int sourceEnd,
+                                   boolean inMath) {
+        if (!inMath && end > start) {
+            tokens.add(new Token(Type.HEADING, start, end, sourceStart, sourceEnd, level, null));
+        }
+    }
+
+    /**
+     * 行首的标题标记：1到6个#，之后至少一个空白字符（可以跨行，与原来的^(#{1,6})\s+(.+)$一致），再之后是标题内容
+     * @return 标题内容在原文中的开始位置，不是标题时返回-1
+     */
+    private static int headingContentStart(String source, int lineStart) {
+        int hashes = countHashes(source, lineStart);
+        if (hashes < 1 || hashes > 6) {
+            return -1;
+        }
+        int pos = lineStart + hashes;
+        int whitespaceStart = pos;
+        while (pos < source.length() && isRegexWhitespace(source.charAt(pos))) {
+            pos++;
+        }
+        if (pos == whitespaceStart || pos >= source.length()) {
+            return -1;
+        }
+        return pos;
+    }
+
+    /**
+     * 行首的1到6个#之后直到原文末尾都是空白，之后到达的文本可能使它成为标题
+     */
+    private static boolean isBareHeadingMarker(String source, int lineStart) {
+        int hashes = countHashes(source, lineStart);
+        if (hashes < 1 || hashes > 6) {
+            return false;
+        }
+        int pos = lineStart + hashes;
+        while (pos < source.length() && isRegexWhitespace(source.charAt(pos))) {
+            pos++;
+        }
+        return pos == source.length();
+    }
+
+    private static int countHashes(String source, int pos) {
+        int count = 0;
+        while (pos + count < source.length() && source.charAt(pos + count) == '#') {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 标题内容的结束位置：下一个换行符或回车符之前（与正则中的.一致）
+     */
+    private static int lineEnd(String source, int from) {
+        int pos = from;
+        while (pos < source.length() && source.charAt(pos) != '\n' && source.charAt(pos) != '\r') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * 处理数学表达式中的符号，去除上下标标记符号，处理分数表达式
+     *
+     * @param mathContent 原始数学表达式内容
+     * @return 处理后的数学表达式内容
+     */
+    public static String processMathSymbols(String mathContent) {
+        // 首先处理分数表达式
+        String processedContent = processFractions(mathContent);
+
+        StringBuilder result = new StringBuilder();
+        int i = 0;
+
+        while (i < processedContent.length()) {
+            char c = processedContent.charAt(i);
+
+            if (c == '^' || c == '_') {
+                // 遇到上标或下标符号
+                if (i + 1 < processedContent.length()) {
+                    char nextChar = processedContent.charAt(i + 1);
+
+                    if (nextChar == '{') {
+                        // 处理形如 x^{abc} 或 x_{abc} 的情况
+                        int bracketEnd = findClosingBracket(processedContent, i + 1);
+                        if (bracketEnd != -1) {
+                            // 提取括号内的内容
+                            String content = processedContent.substring(i + 2, bracketEnd);
+                            result.append(content);
+                            i = bracketEnd + 1;
+                        } else {
+                            // 没有找到闭合括号，跳过这个符号
+                            i++;
+                        }
+                    } else {
+                        // 处理形如 x^2 或 x_2 的情况
+                        result.append(nextChar);
+                        i += 2;
+                    }
+                } else {
+                    // 符号在末尾，跳过
+                    i++;
+                }
+            } else {
+                // 普通字符，直接添加
+                result.append(c);
+                i++;
+            }
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * 查找闭合括号的位置
+     *
+     * @param text 要搜索的文本
+     * @param openBracketPos 开括号的位置
+     * @return 闭合括号的位置，如果没有找到则返回-1
+     */
+    static int findClosingBracket(String text, int openBracketPos) {
+        if (openBracketPos >= text.length() || text.charAt(openBracketPos) != '{') {
+            return -1;
+        }
+
+        int bracketCount = 1;
+        for (int i = openBracketPos + 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '{') {
+                bracketCount++;
+            } else if (c == '}') {
+                bracketCount--;
+                if (bracketCount == 0) {
+                    return i;
+                }
+            }
+        }
+
+        return -1; // 没有找到匹配的闭合括号
+    }
+
+    /**
+     * 处理分数表达式，将\frac{分子}{分母}转换为分子/分母
+     *
+     * @param content 原始内容
+     * @return 处理后的内容
+     */
+    private static String processFractions(String content) {
+        Matcher matcher = FRAC_PATTERN.matcher(content);
+        StringBuffer sb = new StringBuffer();
+
+        while (matcher.find()) {
+            String numerator = matcher.group(1);
+            String denominator = matcher.group(2);
+            // 将\frac{分子}{分母}替换为分子/分母
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(numerator + "/" + denominator));
+        }
+        matcher.appendTail(sb);
+
+        return sb.toString();
+    }
+}
@@ -14,6 +14,8 @@ import com.example.guangxiaoqing.R;
  */
 public class MathExpressionView extends LinearLayout {
     private WebView webView;
+    // 当前显示的表达式，视图被复用时相同的表达式不重新加载
+    private String latex;
 
     public MathExpressionView(Context context) {
         super(context);
@@ -48,6 +50,10 @@ public class MathExpressionView extends LinearLayout {
      * @param latex LaTeX表达式
      */
     public void setLatex(String latex) {
+        if (latex.equals(this.latex)) {
+            return;
+        }
+        this.latex = latex;
         // 构建HTML内容，使用KaTeX渲染LaTeX表达式
         String html = "<!DOCTYPE html>\n" +
                 "<html>\n" +
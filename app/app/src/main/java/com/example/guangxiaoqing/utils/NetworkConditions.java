@@ -0,0 +1,104 @@
+package com.example.guangxiaoqing.utils;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+
+/**
+ * 设备网络和电量状态
+ * 用于判断是否可以发送预连接等"投机性"流量：省电模式、低电量未充电、
+ * 按流量计费且开启了流量节省程序、或没有可用网络时都不发送
+ */
+public final class NetworkConditions {
+    // 低于该电量且未充电时视为低电量
+    private static final int LOW_BATTERY_PERCENT = 15;
+
+    private NetworkConditions() {
+    }
+
+    /**
+     * 是否允许发送不是用户直接触发的网络请求
+     * @param context 上下文
+     * @return true表示允许
+     */
+    public static boolean allowsSpeculativeTraffic(Context context) {
+        PowerManager powerManager = context.getSystemService(PowerManager.class);
+        if (powerManager != null && powerManager.isPowerSaveMode()) {
+            return false;
+        }
+
+        BatteryManager batteryManager = context.getSystemService(BatteryManager.class);
+        if (batteryManager != null && !batteryManager.isCharging()) {
+            int capacity = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY);
+            if (capacity > 0 && capacity < LOW_BATTERY_PERCENT) {
+                return false;
+            }
+        }
+
+        ConnectivityManager connectivityManager = context.getSystemService(ConnectivityManager.class);
+        if (connectivityManager == null) {
+            return false;
+        }
+        NetworkCapabilities capabilities =
+                connectivityManager.getNetworkCapabilities(connectivityManager.getActiveNetwork());
+        if (capabilities == null || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+            return false;
+        }
+        // 用户开启流量节省程序时，按流量计费的网络上不发送
+        return !(connectivityManager.isActiveNetworkMetered()
+                && connectivityManager.getRestrictBackgroundStatus()
+                == ConnectivityManager.RESTRICT_BACKGROUND_STATUS_ENABLED);
+    }
+
+    /**
+     * 当前是否有可用的网络
+     * @param context 上下文
+     * @return true表示有网络
+     */
+    public static boolean isConnected(Context context) {
+        ConnectivityManager connectivityManager = context.getSystemService(ConnectivityManager.class);
+        if (connectivityManager == null) {
+            return false;
+        }
+        NetworkCapabilities capabilities =
+                connectivityManager.getNetworkCapabilities(connectivityManager.getActiveNetwork());
+        return capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+    }
+
+    /**
+     * 当前网络类型，用于按网络分别统计延迟
+     * 每次调用都会查询ConnectivityManager，需要频繁读取时使用NetworkTypeTracker
+     * @param context 上下文
+     * @return "wifi"、"cellular"、"ethernet"、"other"或"none"
+     */
+    public static String networkType(Context context) {
+        ConnectivityManager connectivityManager = context.getSystemService(ConnectivityManager.class);
+        if (connectivityManager == null) {
+            return "none";
+        }
+        return typeOf(connectivityManager.getNetworkCapabilities(connectivityManager.getActiveNetwork()));
+    }
+
+    /**
+     * 网络能力对应的网络类型
+     * @param capabilities 网络能力，为null表示没有网络
+     * @return "wifi"、"cellular"、"ethernet"、"other"或"none"
+     */
+    static String typeOf(NetworkCapabilities capabilities) {
+        if (capabilities == null) {
+            return "none";
+        }
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            return "wifi";
+        }
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            return "cellular";
+        }
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            return "ethernet";
+        }
+        return "other";
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.guangxiaoqing.utils;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.util.Log;
+
+import java.util.function.Supplier;
+
+/**
+ * 缓存的当前网络类型
+ * 默认网络变化时由ConnectivityManager回调更新，读取时不再查询系统服务，
+ * 可以在每个请求计算超时时直接使用
+ */
+public final class NetworkTypeTracker implements Supplier<String> {
+    private static final String TAG = "NetworkTypeTracker";
+
+    private volatile String type;
+
+    /**
+     * 创建并开始跟踪默认网络，跟踪持续到进程结束
+     * @param context 上下文
+     */
+    public NetworkTypeTracker(Context context) {
+        Context appContext = context.getApplicationContext();
+        type = NetworkConditions.networkType(appContext);
+        ConnectivityManager connectivityManager = appContext.getSystemService(ConnectivityManager.class);
+        if (connectivityManager == null) {
+            return;
+        }
+        connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                String newType = NetworkConditions.typeOf(capabilities);
+                if (!newType.equals(type)) {
+                    Log.d(TAG, "网络类型: " + type + " -> " + newType);
+                    type = newType;
+                }
+            }
+
+            @Override
+            public void onLost(Network network) {
+                type = "none";
+            }
+        });
+    }
+
+    /**
+     * @return "wifi"、"cellular"、"ethernet"、"other"或"none"
+     */
+    @Override
+    public String get() {
+        return type;
+    }
+}
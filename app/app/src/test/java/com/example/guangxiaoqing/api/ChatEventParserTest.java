@@ -0,0 +1,98 @@
+package com.example.guangxiaoqing.api;
+
+import org.junit.Test;
+
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 聊天流事件解析测试：事件和标签被拆分到任意位置时结果不变
+ */
+public class ChatEventParserTest {
+
+    @Test
+    public void ndjsonEventsSplitAcrossChunks() throws Exception {
+        String stream = "{\"type\":\"think\",\"text\":\"先查一下手册\"}\n"
+                + "{\"type\":\"heartbeat\"}\n"
+                + "{\"type\":\"answer\",\"text\":\"图书馆\"}\n"
+                + "{\"type\":\"answer\",\"text\":\"八点开门。\"}\n"
+                + "{\"type\":\"sources\",\"sources\":[{\"title\":\"学生手册\",\"url\":\"https://example.com/a\"}]}\n"
+                + "{\"type\":\"done\",\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":8}}\n";
+
+        for (int split = 1; split < stream.length(); split++) {
+            ChatEventParser parser = ChatEventParser.forContentType("application/x-ndjson; charset=utf-8");
+            List<ChatStreamEvent> events = new ArrayList<>();
+            parser.feed(stream.substring(0, split), events::add);
+            parser.feed(stream.substring(split), events::add);
+            parser.finish(events::add);
+
+            assertEquals(6, events.size());
+            assertEquals(ChatStreamEvent.Type.THINK, events.get(0).getType());
+            assertEquals(ChatStreamEvent.Type.HEARTBEAT, events.get(1).getType());
+            assertEquals("图书馆八点开门。", events.get(2).getText() + events.get(3).getText());
+            assertEquals("学生手册", events.get(4).getSources().get(0).getTitle());
+            assertEquals(20, events.get(5).getUsage().getTotalTokens());
+            assertTrue(parser.isComplete());
+            assertEquals(stream.codePointCount(0, stream.length()), parser.committedLength());
+        }
+    }
+
+    @Test
+    public void ndjsonWithoutDoneIsIncomplete() throws Exception {
+        ChatEventParser parser = ChatEventParser.forContentType("application/x-ndjson");
+        List<ChatStreamEvent> events = new ArrayList<>();
+        parser.feed("{\"type\":\"answer\",\"text\":\"你好\"}\n{\"type\":\"ans", events::add);
+
+        assertEquals(1, events.size());
+        assertFalse(parser.isComplete());
+        // 不完整的行不计入续传位置
+        assertEquals("{\"type\":\"answer\",\"text\":\"你好\"}\n".length(), parser.committedLength());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void malformedNdjsonLineFails() throws Exception {
+        ChatEventParser parser = ChatEventParser.forContentType("application/x-ndjson");
+        parser.feed("{\"type\":\"answer\",\"text\":\n", event -> { });
+    }
+
+    @Test
+    public void plainTextThinkTagsSplitAcrossChunks() throws Exception {
+        String stream = "<think>用户在问开放时间</think>\n\n图书馆<b>八点</b>开门。";
+
+        for (int split = 1; split < stream.length(); split++) {
+            ChatEventParser parser = ChatEventParser.forContentType("text/plain; charset=utf-8");
+            StringBuilder thinking = new StringBuilder();
+            StringBuilder answer = new StringBuilder();
+            ChatEventParser.Listener listener = event -> {
+                if (event.getType() == ChatStreamEvent.Type.THINK) {
+                    thinking.append(event.getText());
+                } else {
+                    answer.append(event.getText());
+                }
+            };
+            parser.feed(stream.substring(0, split), listener);
+            parser.feed(stream.substring(split), listener);
+            parser.finish(listener);
+
+            assertEquals("用户在问开放时间", thinking.toString());
+            assertEquals("\n\n图书馆<b>八点</b>开门。", answer.toString());
+            assertTrue(parser.isComplete());
+            assertEquals(stream.length(), parser.committedLength());
+        }
+    }
+
+    @Test
+    public void plainTextHeldTagPrefixIsNotCommitted() throws Exception {
+        ChatEventParser parser = ChatEventParser.forContentType("text/plain");
+        StringBuilder answer = new StringBuilder();
+        parser.feed("回答<thi", event -> answer.append(event.getText()));
+
+        assertEquals("回答", answer.toString());
+        assertEquals(2, parser.committedLength());
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.guangxiaoqing.api;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 离线待发送队列测试：问题保存到文件并在后台恢复，网络恢复后按顺序发送，失败时退避重试
+ */
+public class ChatOutboxTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private final List<Long> delays = new ArrayList<>();
+
+    @Test
+    public void survivesRestartAndSendsInOrder() throws Exception {
+        File file = new File(folder.getRoot(), ChatOutbox.fileName("13800000000"));
+        ChatOutbox outbox = newOutbox(file);
+        outbox.enqueue("图书馆几点开门");
+        outbox.enqueue("几点关门");
+        outbox.close();
+
+        // 应用重新启动后从文件恢复
+        ChatOutbox restored = newOutbox(file);
+        assertEquals(2, restored.pending().size());
+        List<String> sent = new ArrayList<>();
+        restored.onNetworkAvailable((entry, result) -> {
+            sent.add(entry.getContent());
+            result.onSuccess(null);
+        });
+
+        assertEquals(2, sent.size());
+        assertEquals("图书馆几点开门", sent.get(0));
+        assertEquals("几点关门", sent.get(1));
+        assertTrue(restored.isEmpty());
+        assertTrue(newOutbox(file).isEmpty());
+    }
+
+    @Test
+    public void backsOffWhileOfflineAndResetsOnReconnect() throws Exception {
+        ChatOutbox outbox = newOutbox(new File(folder.getRoot(), ChatOutbox.fileName("13800000000")));
+        outbox.enqueue("图书馆几点开门");
+        int[] attempts = {0};
+        ChatOutbox.Sender offline = (entry, result) -> {
+            attempts[0]++;
+            result.onError("网络请求失败");
+        };
+
+        outbox.flush(offline);
+        runScheduled();
+        runScheduled();
+        assertEquals(3, attempts[0]);
+        // 每次失败后等待时间加倍（带抖动）
+        assertTrue(delays.get(0) <= ChatOutbox.INITIAL_BACKOFF_MS);
+        assertTrue(delays.get(2) > ChatOutbox.INITIAL_BACKOFF_MS);
+        assertEquals(1, outbox.pending().size());
+
+        // 网络恢复时立即发送，之前安排的重试失效
+        List<String> sent = new ArrayList<>();
+        outbox.onNetworkAvailable((entry, result) -> {
+            sent.add(entry.getContent());
+            result.onSuccess(null);
+        });
+        assertEquals(1, sent.size());
+        runScheduled();
+        assertEquals(3, attempts[0]);
+        assertTrue(outbox.isEmpty());
+    }
+
+    @Test
+    public void savesInBackgroundAndCoalescesWrites() throws Exception {
+        File file = new File(folder.getRoot(), ChatOutbox.fileName("13800000000"));
+        List<Runnable> fileTasks = new ArrayList<>();
+        ChatOutbox outbox = new ChatOutbox(file, (task, delayMs) -> task.run(), restored -> { }, fileTasks::add);
+        // 构造时只安排读取，不在调用线程中读文件
+        assertEquals(1, fileTasks.size());
+        fileTasks.get(0).run();
+
+        outbox.enqueue("图书馆几点开门");
+        outbox.enqueue("几点关门");
+        // 调用线程中不写文件，两次修改只安排了一次写入
+        assertEquals(2, outbox.pending().size());
+        assertFalse(file.exists());
+        assertEquals(2, fileTasks.size());
+
+        fileTasks.get(1).run();
+        assertEquals(2, newOutbox(file).pending().size());
+    }
+
+    @Test
+    public void questionsAskedWhileRestoringQueueBehindRestoredOnes() throws Exception {
+        File file = new File(folder.getRoot(), ChatOutbox.fileName("13800000000"));
+        ChatOutbox previous = newOutbox(file);
+        previous.enqueue("图书馆几点开门");
+        previous.close();
+
+        List<Runnable> fileTasks = new ArrayList<>();
+        List<String> shown = new ArrayList<>();
+        ChatOutbox outbox = new ChatOutbox(file, (task, delayMs) -> scheduled.add(task),
+                restored -> shown.add(restored.get(0).getContent()), fileTasks::add);
+        // 还没有恢复：新问题进入队列等待，不会先于文件中的问题发送
+        assertFalse(outbox.isEmpty());
+        outbox.enqueue("几点关门");
+        List<String> sent = new ArrayList<>();
+        outbox.onNetworkAvailable((entry, result) -> {
+            sent.add(entry.getContent());
+            result.onSuccess(null);
+        });
+        assertTrue(sent.isEmpty());
+
+        // 读取完成后在主线程中合并，然后按提问顺序发送
+        fileTasks.get(0).run();
+        runScheduled();
+        assertEquals(1, shown.size());
+        assertEquals("图书馆几点开门", shown.get(0));
+        assertEquals(2, sent.size());
+        assertEquals("图书馆几点开门", sent.get(0));
+        assertEquals("几点关门", sent.get(1));
+    }
+
+    @Test
+    public void usesOneFilePerUser() {
+        assertEquals("chat_outbox_13800000000.json", ChatOutbox.fileName("13800000000"));
+        assertFalse(ChatOutbox.fileName("13800000000").equals(ChatOutbox.fileName("13900000000")));
+    }
+
+    private ChatOutbox newOutbox(File file) {
+        // 同步读写文件，模拟重新启动时之前的写入都已完成；恢复结果立即交付，重试记录下来由测试执行
+        return new ChatOutbox(file, (task, delayMs) -> {
+            if (delayMs == 0) {
+                task.run();
+                return;
+            }
+            scheduled.add(task);
+            delays.add(delayMs);
+        }, restored -> { }, Runnable::run);
+    }
+
+    private void runScheduled() {
+        List<Runnable> tasks = new ArrayList<>(scheduled);
+        scheduled.clear();
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+}
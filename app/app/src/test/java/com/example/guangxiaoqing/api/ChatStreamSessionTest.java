@@ -0,0 +1,292 @@
+package com.example.guangxiaoqing.api;
+
+import com.example.guangxiaoqing.model.ChatMessage;
+import com.example.guangxiaoqing.model.ChatSource;
+import com.example.guangxiaoqing.model.ChatUsage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 聊天流续传测试：用本地模拟服务器在回答中途断开连接
+ */
+public class ChatStreamSessionTest {
+    private static final String ANSWER =
+            "光小青是一个校园问答助手，可以回答关于课程安排、选课流程、图书馆开放时间、"
+            + "宿舍管理规定以及奖学金申请条件等问题。如果遇到无法回答的问题，会建议你联系相关部门。";
+
+    private MockWebServer server;
+    private ApiService apiService;
+    private final DeadlineManager deadlines = new DeadlineManager(() -> "wifi");
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        apiService = new Retrofit.Builder()
+                .baseUrl(server.url("/api/"))
+                .addConverterFactory(GsonConverterFactory.create())
+                .build()
+                .create(ApiService.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void resumesFromReceivedOffset() throws Exception {
+        server.setDispatcher(new ResumeDispatcher(true, true));
+        RecordingCallback callback = new RecordingCallback();
+
+        new ChatStreamSession(apiService, "Bearer token", new ChatConversation().newTurn("介绍一下你自己", new ArrayList<>()),
+                callback, Runnable::run, Runnable::run, new RetryBudget(), deadlines, () -> { }).start();
+
+        assertTrue(callback.finished.await(10, TimeUnit.SECONDS));
+        assertNull(callback.error);
+        assertFalse(callback.restarted);
+        assertEquals(ANSWER, callback.shown.toString());
+
+        RecordedRequest first = server.takeRequest();
+        RecordedRequest second = server.takeRequest();
+        assertEquals("0", first.getHeader(ChatStreamSession.HEADER_RESUME_OFFSET));
+        assertNotNull(second.getHeader(ChatStreamSession.HEADER_RESUME_OFFSET));
+        assertTrue(Long.parseLong(second.getHeader(ChatStreamSession.HEADER_RESUME_OFFSET)) > 0);
+        // 同一次回答的每次尝试使用同一个请求ID
+        assertEquals(first.getHeader("X-Request-ID"), second.getHeader("X-Request-ID"));
+    }
+
+    @Test
+    public void restartsWhenServerLosesResumeState() throws Exception {
+        server.setDispatcher(new ResumeDispatcher(true, false));
+        RecordingCallback callback = new RecordingCallback();
+
+        new ChatStreamSession(apiService, "Bearer token", new ChatConversation().newTurn("介绍一下你自己", new ArrayList<>()),
+                callback, Runnable::run, Runnable::run, new RetryBudget(), deadlines, () -> { }).start();
+
+        assertTrue(callback.finished.await(10, TimeUnit.SECONDS));
+        assertNull(callback.error);
+        assertTrue(callback.restarted);
+        // 重新生成的回答只显示一次，不会和断开前的部分重复
+        assertEquals(ANSWER, callback.shown.toString());
+    }
+
+    @Test
+    public void doesNotResendWhenServerCannotResume() throws Exception {
+        server.setDispatcher(new ResumeDispatcher(false, false));
+        RecordingCallback callback = new RecordingCallback();
+
+        new ChatStreamSession(apiService, "Bearer token", new ChatConversation().newTurn("介绍一下你自己", new ArrayList<>()),
+                callback, Runnable::run, Runnable::run, new RetryBudget(), deadlines, () -> { }).start();
+
+        assertTrue(callback.finished.await(10, TimeUnit.SECONDS));
+        // 服务器已经开始生成回答，重发会再生成一次，只报告错误并保留已显示的部分
+        assertNotNull(callback.error);
+        assertFalse(callback.restarted);
+        assertEquals(1, server.getRequestCount());
+        assertTrue(ANSWER.startsWith(callback.shown.toString()));
+    }
+
+    @Test
+    public void resendsRequestRejectedBeforeProcessing() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "0"));
+        server.enqueue(new MockResponse().setHeader("Content-Type", "text/plain; charset=utf-8").setBody(ANSWER));
+        RecordingCallback callback = new RecordingCallback();
+
+        new ChatStreamSession(apiService, "Bearer token", new ChatConversation().newTurn("介绍一下你自己", new ArrayList<>()),
+                callback, Runnable::run, Runnable::run, new RetryBudget(), deadlines, () -> { }).start();
+
+        assertTrue(callback.finished.await(10, TimeUnit.SECONDS));
+        assertNull(callback.error);
+        assertEquals(ANSWER, callback.shown.toString());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void deliversTypedNdjsonEvents() throws Exception {
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "application/x-ndjson")
+                .setChunkedBody("{\"type\":\"think\",\"text\":\"想一想\"}\n"
+                        + "{\"type\":\"answer\",\"text\":\"八点开门。\"}\n"
+                        + "{\"type\":\"sources\",\"sources\":[{\"title\":\"学生手册\"}]}\n"
+                        + "{\"type\":\"done\",\"usage\":{\"prompt_tokens\":3,\"completion_tokens\":4}}\n", 7));
+        RecordingCallback callback = new RecordingCallback();
+
+        new ChatStreamSession(apiService, "Bearer token", new ChatConversation().newTurn("图书馆几点开门", new ArrayList<>()),
+                callback, Runnable::run, Runnable::run, new RetryBudget(), deadlines, () -> { }).start();
+
+        assertTrue(callback.finished.await(10, TimeUnit.SECONDS));
+        assertNull(callback.error);
+        assertEquals("八点开门。", callback.shown.toString());
+        assertEquals("想一想", callback.thinking.toString());
+        assertEquals(1, callback.sourceCount);
+        assertEquals(7, callback.totalTokens);
+    }
+
+    @Test
+    public void reportsUnexpectedReadFailure() throws Exception {
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "application/x-ndjson")
+                .setBody("{\"type\":\"think\",\"text\":\"想一想\"}\n"
+                        + "{\"type\":\"done\"}\n"));
+        // 回调在读取线程中抛出运行时异常，界面仍应收到失败回调而不是一直等待
+        RecordingCallback callback = new RecordingCallback() {
+            @Override
+            public void onThinking(String text) {
+                throw new IllegalStateException("界面更新失败");
+            }
+        };
+
+        new ChatStreamSession(apiService, "Bearer token", new ChatConversation().newTurn("图书馆几点开门", new ArrayList<>()),
+                callback, Runnable::run, Runnable::run, new RetryBudget(), deadlines, () -> { }).start();
+
+        assertTrue(callback.finished.await(10, TimeUnit.SECONDS));
+        assertNotNull(callback.error);
+    }
+
+    @Test
+    public void sendsOnlyNewTurnAndFallsBackWhenSessionExpires() throws Exception {
+        String done = "{\"type\":\"done\",\"usage\":{\"total_tokens\":1}}\n";
+        server.enqueue(new MockResponse().setHeader("Content-Type", "application/x-ndjson")
+                .setHeader(ChatConversation.HEADER_CONVERSATION_ID, "c1")
+                .setBody("{\"type\":\"answer\",\"text\":\"八点开门。\"}\n" + done));
+        server.enqueue(new MockResponse().setResponseCode(410));
+        server.enqueue(new MockResponse().setHeader("Content-Type", "application/x-ndjson")
+                .setHeader(ChatConversation.HEADER_CONVERSATION_ID, "c2")
+                .setBody(done));
+        ChatConversation conversation = new ChatConversation();
+
+        RecordingCallback first = new RecordingCallback();
+        new ChatStreamSession(apiService, "Bearer token", conversation.newTurn("图书馆几点开门", new ArrayList<>()),
+                first, Runnable::run, Runnable::run, new RetryBudget(), deadlines, () -> { }).start();
+        assertTrue(first.finished.await(10, TimeUnit.SECONDS));
+
+        List<ChatMessage> history = new ArrayList<>();
+        history.add(new ChatMessage("user", "图书馆几点开门"));
+        history.add(new ChatMessage("assistant", "八点开门。"));
+        RecordingCallback second = new RecordingCallback();
+        new ChatStreamSession(apiService, "Bearer token", conversation.newTurn("几点关门", history),
+                second, Runnable::run, Runnable::run, new RetryBudget(), deadlines, () -> { }).start();
+        assertTrue(second.finished.await(10, TimeUnit.SECONDS));
+        assertNull(second.error);
+
+        server.takeRequest();
+        // 会话建立后只发送本轮问题
+        String delta = server.takeRequest().getBody().readUtf8();
+        assertTrue(delta.contains("\"conversation_id\":\"c1\""));
+        assertTrue(delta.contains("\"turn_seq\":2"));
+        assertFalse(delta.contains("history"));
+        // 会话失效后完整上传历史
+        String full = server.takeRequest().getBody().readUtf8();
+        assertTrue(full.contains("八点开门。"));
+        assertFalse(full.contains("conversation_id"));
+        assertEquals("c2", conversation.getConversationId());
+    }
+
+    /**
+     * 首次请求在回答中途断开；重连时根据是否还能续传返回剩余部分或完整回答
+     */
+    private static class ResumeDispatcher extends Dispatcher {
+        private final boolean advertised;
+        private final boolean resumeSupported;
+
+        /**
+         * @param advertised 首次响应是否确认支持续传
+         * @param resumeSupported 重连时是否接受续传
+         */
+        ResumeDispatcher(boolean advertised, boolean resumeSupported) {
+            this.advertised = advertised;
+            this.resumeSupported = resumeSupported;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            String offsetHeader = request.getHeader(ChatStreamSession.HEADER_RESUME_OFFSET);
+            if ("0".equals(offsetHeader)) {
+                MockResponse response = new MockResponse()
+                        .setHeader("Content-Type", "text/plain; charset=utf-8")
+                        .setChunkedBody(ANSWER, 16)
+                        .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+                return advertised ? response.setHeader(ChatStreamSession.HEADER_RESUME_OFFSET, offsetHeader) : response;
+            }
+            if (!resumeSupported) {
+                return new MockResponse()
+                        .setHeader("Content-Type", "text/plain; charset=utf-8")
+                        .setChunkedBody(ANSWER, 16);
+            }
+            int offset = Integer.parseInt(offsetHeader);
+            return new MockResponse()
+                    .setHeader("Content-Type", "text/plain; charset=utf-8")
+                    .setHeader(ChatStreamSession.HEADER_RESUME_OFFSET, offsetHeader)
+                    .setChunkedBody(ANSWER.substring(ANSWER.offsetByCodePoints(0, offset)), 16);
+        }
+    }
+
+    private static class RecordingCallback implements ChatStreamCallback {
+        final StringBuilder shown = new StringBuilder();
+        final StringBuilder thinking = new StringBuilder();
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile boolean restarted = false;
+        volatile String error;
+        volatile int sourceCount = 0;
+        volatile int totalTokens = 0;
+
+        @Override
+        public synchronized void onSuccess(String text) {
+            shown.append(text);
+        }
+
+        @Override
+        public synchronized void onRestart() {
+            restarted = true;
+            shown.setLength(0);
+        }
+
+        @Override
+        public void onThinking(String text) {
+            thinking.append(text);
+        }
+
+        @Override
+        public void onSources(List<ChatSource> sources) {
+            sourceCount = sources.size();
+        }
+
+        @Override
+        public void onDone(ChatUsage usage) {
+            totalTokens = usage.getTotalTokens();
+        }
+
+        @Override
+        public void onComplete() {
+            finished.countDown();
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            error = errorMessage;
+            finished.countDown();
+        }
+    }
+}
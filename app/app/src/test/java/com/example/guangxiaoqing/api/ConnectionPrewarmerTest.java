@@ -0,0 +1,75 @@
+package com.example.guangxiaoqing.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 连接预热测试：预热的连接被之后的请求复用，预热频率受限制
+ */
+public class ConnectionPrewarmerTest {
+    private MockWebServer server;
+    private OkHttpClient client;
+    private ConnectionPrewarmer prewarmer;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient();
+        prewarmer = new ConnectionPrewarmer(client, client.connectionPool(), server.url("/api/"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void chatRequestReusesPrewarmedConnection() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404));
+        server.enqueue(new MockResponse().setBody("回答"));
+
+        assertTrue(prewarmer.prewarm("测试"));
+        RecordedRequest warmup = server.takeRequest(5, TimeUnit.SECONDS);
+        assertEquals("HEAD", warmup.getMethod());
+        // 等待预热请求的连接回到连接池
+        for (int i = 0; i < 50 && client.connectionPool().idleConnectionCount() == 0; i++) {
+            Thread.sleep(20);
+        }
+        // 已有空闲连接，不再预热
+        assertFalse(prewarmer.prewarm("测试"));
+
+        try (Response response = client.newCall(new Request.Builder()
+                .url(server.url("/api/chat/stream")).build()).execute()) {
+            assertEquals("回答", response.body().string());
+        }
+        // 同一连接上的第二个请求
+        assertEquals(1, server.takeRequest().getSequenceNumber());
+    }
+
+    @Test
+    public void limitsPrewarmFrequency() {
+        long now = 0;
+        assertTrue(prewarmer.tryAcquire(now));
+        assertFalse(prewarmer.tryAcquire(now + ConnectionPrewarmer.MIN_INTERVAL_MS - 1));
+        for (int i = 1; i < ConnectionPrewarmer.MAX_PER_HOUR; i++) {
+            assertTrue(prewarmer.tryAcquire(now + i * ConnectionPrewarmer.MIN_INTERVAL_MS));
+        }
+        // 一小时内的次数已用完
+        assertFalse(prewarmer.tryAcquire(now + ConnectionPrewarmer.MAX_PER_HOUR * ConnectionPrewarmer.MIN_INTERVAL_MS));
+    }
+}
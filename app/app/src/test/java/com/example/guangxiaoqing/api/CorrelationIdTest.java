@@ -0,0 +1,60 @@
+package com.example.guangxiaoqing.api;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.Request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 关联ID测试：并发生成不重复，序号单调递增，已有的ID保持不变
+ */
+public class CorrelationIdTest {
+
+    @Test
+    public void idsAreUniqueAcrossThreads() throws Exception {
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    ids.add(CorrelationId.next());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8000, ids.size());
+    }
+
+    @Test
+    public void sequenceIsMonotonic() {
+        String first = CorrelationId.next();
+        String second = CorrelationId.next();
+        assertTrue(sequenceOf(second) > sequenceOf(first));
+    }
+
+    @Test
+    public void ensureKeepsExistingId() {
+        Request request = new Request.Builder().url("http://localhost/api/chat/stream")
+                .header(CorrelationId.HEADER, "turn-1").build();
+        assertEquals("turn-1", CorrelationId.of(CorrelationId.ensure(request)));
+
+        Request withoutId = new Request.Builder().url("http://localhost/api/login").build();
+        assertNotNull(CorrelationId.ensure(withoutId).header(CorrelationId.HEADER));
+    }
+
+    private static long sequenceOf(String id) {
+        return Long.parseLong(id.substring(id.indexOf('-') + 1));
+    }
+}
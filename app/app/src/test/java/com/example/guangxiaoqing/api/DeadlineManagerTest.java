@@ -0,0 +1,50 @@
+package com.example.guangxiaoqing.api;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 自适应超时测试：没有样本时使用固定上限，按网络类型分别估算，结果不超出上下限
+ */
+public class DeadlineManagerTest {
+    private final AtomicReference<String> network = new AtomicReference<>("wifi");
+    private final DeadlineManager deadlines = new DeadlineManager(network::get);
+
+    @Test
+    public void usesPolicyLimitsWithoutSamples() {
+        assertEquals(EndpointPolicy.DEFAULT.getConnectTimeoutMs(), deadlines.connectTimeoutMs(EndpointPolicy.DEFAULT));
+        assertEquals(EndpointPolicy.CHAT_STREAM.getReadTimeoutMs(), deadlines.readTimeoutMs(EndpointPolicy.CHAT_STREAM));
+        assertEquals(EndpointPolicy.DEFAULT.getWriteTimeoutMs(), deadlines.writeTimeoutMs(EndpointPolicy.DEFAULT, 2048));
+    }
+
+    @Test
+    public void tightensOnFastNetworkAndKeepsOtherNetworksSeparate() {
+        for (int i = 0; i < 10; i++) {
+            deadlines.recordConnect(30);
+            deadlines.recordFirstByte(EndpointPolicy.DEFAULT, 200);
+            deadlines.recordFirstByte(EndpointPolicy.CHAT_STREAM, 3000);
+        }
+        assertEquals(DeadlineManager.MIN_CONNECT_TIMEOUT_MS, deadlines.connectTimeoutMs(EndpointPolicy.DEFAULT));
+        assertEquals(DeadlineManager.MIN_READ_TIMEOUT_MS, deadlines.readTimeoutMs(EndpointPolicy.DEFAULT));
+        assertEquals(DeadlineManager.MIN_STREAM_READ_TIMEOUT_MS, deadlines.readTimeoutMs(EndpointPolicy.CHAT_STREAM));
+
+        // 切换到还没有样本的蜂窝网络时回到固定上限
+        network.set("cellular");
+        assertEquals(EndpointPolicy.DEFAULT.getConnectTimeoutMs(), deadlines.connectTimeoutMs(EndpointPolicy.DEFAULT));
+    }
+
+    @Test
+    public void slowNetworkIsCappedByPolicy() {
+        deadlines.recordConnect(2500);
+        deadlines.recordConnect(6000);
+        deadlines.recordFirstByte(EndpointPolicy.DEFAULT, 9000);
+        long connect = deadlines.connectTimeoutMs(EndpointPolicy.DEFAULT);
+        assertTrue(connect > DeadlineManager.MIN_CONNECT_TIMEOUT_MS);
+        assertTrue(connect <= EndpointPolicy.DEFAULT.getConnectTimeoutMs());
+        assertEquals(EndpointPolicy.DEFAULT.getReadTimeoutMs(), deadlines.readTimeoutMs(EndpointPolicy.DEFAULT));
+    }
+}
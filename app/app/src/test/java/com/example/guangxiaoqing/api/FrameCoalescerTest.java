@@ -0,0 +1,54 @@
+package com.example.guangxiaoqing.api;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 按帧合并测试：用手动触发的帧调度代替Choreographer
+ */
+public class FrameCoalescerTest {
+
+    @Test
+    public void deliversAtMostOncePerFrame() {
+        List<Runnable> frames = new ArrayList<>();
+        List<String> delivered = new ArrayList<>();
+        FrameCoalescer coalescer = new FrameCoalescer(Runnable::run, frames::add, delivered::add);
+
+        for (int i = 0; i < 100; i++) {
+            coalescer.append("字");
+        }
+        assertEquals(1, frames.size());
+        assertEquals(0, delivered.size());
+
+        frames.remove(0).run();
+        assertEquals(1, delivered.size());
+        assertEquals(100, delivered.get(0).length());
+
+        // 下一帧重新安排
+        coalescer.append("下一帧");
+        assertEquals(1, frames.size());
+        frames.remove(0).run();
+        assertEquals("下一帧", delivered.get(1));
+    }
+
+    @Test
+    public void flushDeliversBeforeFollowingCallbacks() {
+        List<Runnable> frames = new ArrayList<>();
+        List<String> delivered = new ArrayList<>();
+        FrameCoalescer coalescer = new FrameCoalescer(Runnable::run, frames::add, delivered::add);
+
+        coalescer.append("回答");
+        coalescer.flush();
+        delivered.add("done");
+        assertEquals("回答", delivered.get(0));
+        assertEquals("done", delivered.get(1));
+
+        // 已安排的帧回调没有剩余文本可交付
+        frames.remove(0).run();
+        assertEquals(2, delivered.size());
+    }
+}
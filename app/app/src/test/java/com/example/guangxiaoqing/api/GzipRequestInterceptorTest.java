@@ -0,0 +1,201 @@
+package com.example.guangxiaoqing.api;
+
+import com.example.guangxiaoqing.model.ChatMessage;
+import com.example.guangxiaoqing.model.ChatRequest;
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.GzipSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 请求体压缩测试：阈值、旧服务器回退、其他错误不重发，以及真实中文对话的压缩效果
+ */
+public class GzipRequestInterceptorTest {
+    private static final MediaType JSON = MediaType.get("application/json; charset=UTF-8");
+
+    private MockWebServer server;
+    private GzipRequestInterceptor interceptor;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        interceptor = new GzipRequestInterceptor(GzipRequestInterceptor.DEFAULT_MIN_SIZE);
+        interceptor.setEnabled(true);
+        client = new OkHttpClient.Builder().addInterceptor(interceptor).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void compressesOnlyAboveThreshold() throws Exception {
+        String large = new Gson().toJson(conversation(sampleQa(), 20));
+        server.enqueue(new MockResponse().setBody("ok"));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        post(large).close();
+        post("{\"content\":\"你好\"}").close();
+
+        RecordedRequest compressed = server.takeRequest();
+        assertEquals("gzip", compressed.getHeader("Content-Encoding"));
+        assertEquals(large, gunzip(compressed.getBody()));
+        assertNull(server.takeRequest().getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void fallsBackWhenServerRejectsGzip() throws Exception {
+        String large = new Gson().toJson(conversation(sampleQa(), 20));
+        server.enqueue(new MockResponse().setResponseCode(415));
+        server.enqueue(new MockResponse().setBody("ok"));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        try (Response response = post(large)) {
+            assertEquals(200, response.code());
+        }
+        post(large).close();
+
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+        RecordedRequest retried = server.takeRequest();
+        assertNull(retried.getHeader("Content-Encoding"));
+        assertEquals(large, retried.getBody().readUtf8());
+        // 记住该主机不支持，之后直接发送未压缩的请求
+        assertNull(server.takeRequest().getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void doesNotReplayOtherErrors() throws Exception {
+        String large = new Gson().toJson(conversation(sampleQa(), 20));
+        // 400可能是服务器已经读取并拒绝了请求内容，不能重发，也不代表不支持压缩
+        server.enqueue(new MockResponse().setResponseCode(400));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        try (Response response = post(large)) {
+            assertEquals(400, response.code());
+        }
+        post(large).close();
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+    }
+
+    /**
+     * 用知识库中的问答模拟带20条历史的聊天请求，输出压缩前后的字节数
+     */
+    @Test
+    public void benchmarkChineseConversations() throws Exception {
+        List<String[]> qa = loadQa();
+        Assume.assumeTrue("找不到rag/docs，跳过", qa.size() >= 40);
+
+        Gson gson = new Gson();
+        long plainTotal = 0;
+        long gzipTotal = 0;
+        int samples = 0;
+        for (int offset = 0; offset + 21 <= qa.size() && samples < 50; offset += 21, samples++) {
+            byte[] plain = gson.toJson(conversation(qa.subList(offset, offset + 21), 20))
+                    .getBytes(StandardCharsets.UTF_8);
+            Buffer compressed = new Buffer();
+            GzipRequestInterceptor.gzip(RequestBody.create(plain, JSON)).writeTo(compressed);
+            plainTotal += plain.length;
+            gzipTotal += compressed.size();
+        }
+        System.out.println("请求体压缩: " + samples + "个对话, 平均 " + plainTotal / samples + " -> "
+                + gzipTotal / samples + " 字节, 节省 " + (100 - gzipTotal * 100 / plainTotal) + "%");
+        assertTrue(gzipTotal < plainTotal);
+    }
+
+    private Response post(String json) throws Exception {
+        return client.newCall(new Request.Builder()
+                .url(server.url("/api/chat/stream"))
+                .post(RequestBody.create(json, JSON))
+                .build()).execute();
+    }
+
+    /**
+     * 前20组问答作为历史，最后一个问题作为本次内容
+     */
+    private static ChatRequest conversation(List<String[]> qa, int historySize) {
+        List<ChatMessage> history = new ArrayList<>();
+        for (int i = 0; i < historySize / 2 && i < qa.size() - 1; i++) {
+            history.add(new ChatMessage("user", qa.get(i)[0]));
+            history.add(new ChatMessage("assistant", qa.get(i)[1]));
+        }
+        return new ChatRequest(qa.get(qa.size() - 1)[0], history);
+    }
+
+    private static List<String[]> sampleQa() {
+        List<String[]> qa = new ArrayList<>();
+        for (int i = 0; i < 21; i++) {
+            qa.add(new String[]{"第" + i + "个问题：学校有哪些二级学院？",
+                    "学校有人工智能学院、管理学院、航天北斗技术学院、材料学院、生态环境技术学院、智能制造与装备学院等。"});
+        }
+        return qa;
+    }
+
+    /**
+     * 读取知识库文档中"问题\n回答\n\n"格式的问答
+     */
+    private static List<String[]> loadQa() throws Exception {
+        List<String[]> qa = new ArrayList<>();
+        File docs = findDocs();
+        if (docs == null) {
+            return qa;
+        }
+        String text = new String(Files.readAllBytes(new File(docs, "学校网站数据.md").toPath()), StandardCharsets.UTF_8);
+        for (String block : text.split("\n\\s*\n")) {
+            String[] lines = block.trim().split("\n", 2);
+            if (lines.length == 2) {
+                qa.add(new String[]{lines[0].trim(), lines[1].trim()});
+            }
+        }
+        return qa;
+    }
+
+    private static File findDocs() {
+        File dir = new File(System.getProperty("user.dir")).getAbsoluteFile();
+        for (; dir != null; dir = dir.getParentFile()) {
+            File docs = new File(dir, "rag/docs");
+            if (new File(docs, "学校网站数据.md").isFile()) {
+                return docs;
+            }
+        }
+        return null;
+    }
+
+    private static String gunzip(Buffer body) throws Exception {
+        Buffer out = new Buffer();
+        try (GzipSource source = new GzipSource(body)) {
+            while (source.read(out, 8192) != -1) {
+                // 读取全部内容
+            }
+        }
+        return out.readUtf8();
+    }
+}
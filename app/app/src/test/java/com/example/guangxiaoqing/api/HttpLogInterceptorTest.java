@@ -0,0 +1,64 @@
+package com.example.guangxiaoqing.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 日志拦截器测试：脱敏，且不缓冲流式响应
+ */
+public class HttpLogInterceptorTest {
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void redactsPasswordsAndTokens() {
+        String body = "{\"phone\":\"13800000000\",\"password\":\"secret\\\"1\",\"access_token\":\"abc\"}";
+        String redacted = HttpLogInterceptor.redact(body);
+
+        assertTrue(redacted.contains("13800000000"));
+        assertTrue(!redacted.contains("secret"));
+        assertTrue(!redacted.contains("abc"));
+    }
+
+    @Test
+    public void doesNotBufferChatStream() throws Exception {
+        // 回答每100毫秒输出一小段，整个流需要约2秒
+        server.enqueue(new MockResponse()
+                .setChunkedBody("第一段回答，第二段回答，第三段回答。", 3)
+                .throttleBody(3, 100, TimeUnit.MILLISECONDS));
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new HttpLogInterceptor(1))
+                .build();
+
+        long start = System.nanoTime();
+        try (Response response = client.newCall(new Request.Builder()
+                .url(server.url("/api/chat/stream"))
+                .build()).execute()) {
+            // 拦截器没有读取响应体，响应头到达后立即返回
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+            assertEquals("第一段回答，第二段回答，第三段回答。", response.body().string());
+        }
+    }
+}
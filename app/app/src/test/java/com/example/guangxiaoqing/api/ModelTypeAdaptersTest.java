@@ -0,0 +1,77 @@
+package com.example.guangxiaoqing.api;
+
+import com.example.guangxiaoqing.model.ChatMessage;
+import com.example.guangxiaoqing.model.ChatRequest;
+import com.example.guangxiaoqing.model.PasswordChangeRequest;
+import com.example.guangxiaoqing.model.TokenResponse;
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import retrofit2.http.Body;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 手写编解码器测试：输出与反射方式一致，ApiService用到的模型类都已注册
+ */
+public class ModelTypeAdaptersTest {
+    private final Gson gson = ModelTypeAdapters.createGson();
+
+    @Test
+    public void matchesReflectiveJson() {
+        List<ChatMessage> history = new ArrayList<>();
+        history.add(new ChatMessage("user", "图书馆几点开门"));
+        history.add(new ChatMessage("assistant", "八点开门。"));
+        ChatRequest full = new ChatRequest("几点关门", history);
+        ChatRequest delta = ChatRequest.delta("几点关门", "c1", 2);
+        PasswordChangeRequest change = new PasswordChangeRequest("13800000000", "old", "new");
+
+        Gson reflective = new Gson();
+        assertEquals(reflective.toJson(full), gson.toJson(full));
+        assertEquals(reflective.toJson(delta), gson.toJson(delta));
+        assertEquals(reflective.toJson(change), gson.toJson(change));
+    }
+
+    @Test
+    public void readsTokenResponseIgnoringUnknownFields() {
+        TokenResponse token = gson.fromJson(
+                "{\"access_token\":\"abc\",\"token_type\":\"bearer\",\"expires_in\":3600,\"user\":{\"id\":1}}",
+                TokenResponse.class);
+        assertEquals("bearer abc", token.getAuthHeader());
+
+        ChatRequest request = gson.fromJson(gson.toJson(ChatRequest.delta("几点关门", "c1", 2)), ChatRequest.class);
+        assertEquals("c1", request.getConversationId());
+        assertEquals(Integer.valueOf(2), request.getTurnSeq());
+    }
+
+    @Test
+    public void everyApiModelHasAnAdapter() {
+        for (Method method : ApiService.class.getDeclaredMethods()) {
+            Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+            for (int i = 0; i < parameterAnnotations.length; i++) {
+                for (Annotation annotation : parameterAnnotations[i]) {
+                    if (annotation instanceof Body) {
+                        assertRegistered(method.getParameterTypes()[i]);
+                    }
+                }
+            }
+            Type responseType = ((ParameterizedType) method.getGenericReturnType()).getActualTypeArguments()[0];
+            if (responseType instanceof Class && ((Class<?>) responseType).getName().contains(".model.")) {
+                assertRegistered((Class<?>) responseType);
+            }
+        }
+    }
+
+    private static void assertRegistered(Class<?> type) {
+        assertTrue(type.getName() + "没有注册编解码器", ModelTypeAdapters.isRegistered(type));
+    }
+}
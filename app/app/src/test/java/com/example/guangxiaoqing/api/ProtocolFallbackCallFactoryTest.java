@@ -0,0 +1,149 @@
+package com.example.guangxiaoqing.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * HTTP/2明文探测和回退测试
+ */
+public class ProtocolFallbackCallFactoryTest {
+    private MockWebServer server;
+    private OkHttpClient client;
+    private ProtocolFallbackCallFactory factory;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        client = new OkHttpClient();
+        factory = new ProtocolFallbackCallFactory(client);
+        factory.setPriorKnowledgeEnabled(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void streamAndShortCallShareOneH2cConnection() throws Exception {
+        server.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().equals("/api/chat/stream")) {
+                    // 模拟一个还在输出的流式回答
+                    return new MockResponse().setBody("正在生成的回答").throttleBody(3, 200, TimeUnit.MILLISECONDS);
+                }
+                return new MockResponse().setBody("{}");
+            }
+        });
+        server.start();
+        probe(server.url("/"));
+        assertTrue(factory.isH2cHost(server.url("/")));
+
+        try (Response stream = factory.newCall(new Request.Builder().url(server.url("/api/chat/stream")).build()).execute();
+             Response login = factory.newCall(new Request.Builder().url(server.url("/api/login")).build()).execute()) {
+            assertEquals(Protocol.H2_PRIOR_KNOWLEDGE, stream.protocol());
+            assertEquals(Protocol.H2_PRIOR_KNOWLEDGE, login.protocol());
+            assertEquals("{}", login.body().string());
+        }
+
+        // 探测和之后的请求复用了同一个连接
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        assertEquals(1, server.takeRequest().getSequenceNumber());
+        assertEquals(2, server.takeRequest().getSequenceNumber());
+    }
+
+    @Test
+    public void usesHttp1UntilProbeFinishesAndRemembersFailure() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody("ok");
+            }
+        });
+        server.start();
+
+        // 探测还没有结束时使用HTTP/1.1
+        CountDownLatch probed = new CountDownLatch(1);
+        factory.probe(server.url("/"), probed::countDown);
+        try (Response first = factory.newCall(new Request.Builder().url(server.url("/api/login")).build()).execute()) {
+            assertEquals(Protocol.HTTP_1_1, first.protocol());
+            assertEquals("ok", first.body().string());
+        }
+        assertTrue(probed.await(10, TimeUnit.SECONDS));
+        assertTrue(factory.isHttp1Host(server.url("/")));
+        assertFalse(factory.isH2cHost(server.url("/")));
+
+        try (Response second = factory.newCall(new Request.Builder().url(server.url("/api/login")).build()).execute()) {
+            assertEquals(Protocol.HTTP_1_1, second.protocol());
+        }
+    }
+
+    @Test
+    public void connectFailureIsNotRemembered() throws Exception {
+        server.start();
+        HttpUrl url = server.url("/");
+        server.shutdown();
+
+        probe(url);
+        // 没有建立连接，与服务器是否支持h2c无关
+        assertFalse(factory.isHttp1Host(url));
+        assertFalse(factory.isH2cHost(url));
+    }
+
+    @Test
+    public void failedH2cCallIsNotResent() throws Exception {
+        server.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        server.enqueue(new MockResponse());
+        // 服务器收到请求后断开连接：请求可能已经被处理，不能重发
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+        server.start();
+        probe(server.url("/"));
+        // 在新连接上发送：OkHttp自身会在复用的旧连接失效时换一个连接重试，这里只检查回退不会重发
+        client.connectionPool().evictAll();
+        Request login = new Request.Builder().url(server.url("/api/login"))
+                .post(RequestBody.create("{}", MediaType.get("application/json")))
+                .build();
+
+        try {
+            factory.newCall(login).execute().close();
+            fail("连接中断应报告给调用方");
+        } catch (IOException expected) {
+            // 预期的失败
+        }
+        assertEquals(2, server.getRequestCount());
+        // 主机回到未探测的状态，下一个请求重新探测
+        assertFalse(factory.isH2cHost(server.url("/")));
+    }
+
+    private void probe(HttpUrl url) throws InterruptedException {
+        CountDownLatch finished = new CountDownLatch(1);
+        factory.probe(url, finished::countDown);
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+    }
+}
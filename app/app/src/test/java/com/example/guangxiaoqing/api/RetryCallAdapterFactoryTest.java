@@ -0,0 +1,165 @@
+package com.example.guangxiaoqing.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.OkHttpClient;
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.http.GET;
+import retrofit2.http.Header;
+import retrofit2.http.POST;
+import retrofit2.http.PUT;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 重试层测试：只重试幂等请求，遵守Retry-After和重试预算
+ */
+public class RetryCallAdapterFactoryTest {
+
+    interface TestService {
+        @GET("status")
+        Call<ResponseBody> status();
+
+        @POST("login")
+        Call<ResponseBody> login();
+
+        @RetryCallAdapterFactory.NoRetry
+        @PUT("users/password")
+        Call<ResponseBody> changePassword();
+
+        @POST("outbox")
+        Call<ResponseBody> send(@Header(RetryCallAdapterFactory.HEADER_IDEMPOTENCY_KEY) String key);
+    }
+
+    private MockWebServer server;
+    private ScheduledExecutorService scheduler;
+    private RetryBudget budget;
+    private TestService service;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        budget = new RetryBudget();
+        OkHttpClient client = new OkHttpClient();
+        service = new Retrofit.Builder()
+                .baseUrl(server.url("/api/"))
+                // 与ApiClient一样在创建请求时补上关联ID
+                .callFactory(request -> client.newCall(CorrelationId.ensure(request)))
+                .addCallAdapterFactory(new RetryCallAdapterFactory(scheduler, budget))
+                .build()
+                .create(TestService.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void retriesIdempotentRequestHonoringRetryAfter() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        long start = System.nanoTime();
+        assertEquals(200, await(service.status()).code());
+        assertEquals(2, server.getRequestCount());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 1000);
+    }
+
+    @Test
+    public void retryKeepsRequestId() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        assertEquals(200, await(service.status()).code());
+        String requestId = server.takeRequest().getHeader(CorrelationId.HEADER);
+        assertNotNull(requestId);
+        assertEquals(requestId, server.takeRequest().getHeader(CorrelationId.HEADER));
+        assertEquals(requestId, server.takeRequest().getHeader(CorrelationId.HEADER));
+    }
+
+    @Test
+    public void doesNotRetryPlainPost() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        assertEquals(503, await(service.login()).code());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void doesNotRetryNoRetryRequest() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        assertEquals(503, await(service.changePassword()).code());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void retriesPostWithIdempotencyKey() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(502));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        assertEquals(200, await(service.send("outbox-1")).code());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void givesUpWhenRetryAfterIsTooLong() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "3600"));
+
+        assertEquals(503, await(service.status()).code());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void stopsRetryingWhenBudgetIsExhausted() throws Exception {
+        while (budget.tryAcquire()) {
+            // 耗尽预算
+        }
+        server.enqueue(new MockResponse().setResponseCode(503));
+
+        assertEquals(503, await(service.status()).code());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    private static Response<ResponseBody> await(Call<ResponseBody> call) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Response<ResponseBody>> result = new AtomicReference<>();
+        call.enqueue(new Callback<ResponseBody>() {
+            @Override
+            public void onResponse(Call<ResponseBody> call, Response<ResponseBody> response) {
+                result.set(response);
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Call<ResponseBody> call, Throwable t) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        return result.get();
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.guangxiaoqing.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 401处理测试：并发的认证失败只结束一次登录会话，认证头已更新时用新认证头重发
+ */
+public class SessionAuthenticatorTest {
+    private MockWebServer server;
+    private final AtomicReference<String> authHeader = new AtomicReference<>("Bearer old");
+    private final AtomicInteger expired = new AtomicInteger();
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient.Builder()
+                .authenticator(new SessionAuthenticator(authHeader::get, () -> {
+                    expired.incrementAndGet();
+                    authHeader.set(null);
+                }))
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void concurrentUnauthorizedExpiresSessionOnce() throws Exception {
+        int requests = 4;
+        for (int i = 0; i < requests; i++) {
+            server.enqueue(new MockResponse().setResponseCode(401));
+        }
+        List<Thread> threads = new ArrayList<>();
+        List<Integer> codes = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            Thread thread = new Thread(() -> {
+                int code = execute("Bearer old");
+                synchronized (codes) {
+                    codes.add(code);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(requests, codes.size());
+        for (int code : codes) {
+            assertEquals(401, code);
+        }
+        assertEquals(1, expired.get());
+        assertEquals(requests, server.getRequestCount());
+    }
+
+    @Test
+    public void retriesWithUpdatedHeader() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(401));
+        server.enqueue(new MockResponse().setBody("ok"));
+        // 请求发出后在其他页面重新登录
+        authHeader.set("Bearer new");
+
+        assertEquals(200, execute("Bearer old"));
+        assertEquals("Bearer old", server.takeRequest().getHeader("Authorization"));
+        assertEquals("Bearer new", server.takeRequest().getHeader("Authorization"));
+        assertEquals(0, expired.get());
+    }
+
+    @Test
+    public void ignoresUnauthenticatedRequests() throws Exception {
+        // 登录接口的401表示账号或密码错误
+        server.enqueue(new MockResponse().setResponseCode(401));
+        assertEquals(401, execute(null));
+        assertEquals(0, expired.get());
+    }
+
+    private int execute(String header) {
+        Request.Builder builder = new Request.Builder().url(server.url("/api/chat/stream"));
+        if (header != null) {
+            builder.header("Authorization", header);
+        }
+        try (Response response = client.newCall(builder.build()).execute()) {
+            return response.code();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
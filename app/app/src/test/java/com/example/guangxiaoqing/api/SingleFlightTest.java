@@ -0,0 +1,170 @@
+package com.example.guangxiaoqing.api;
+
+import com.example.guangxiaoqing.model.LoginRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 进行中请求去重测试：相同的请求只发送一次，所有调用方收到同一个结果
+ */
+public class SingleFlightTest {
+    private MockWebServer server;
+    private ApiService apiService;
+    private final DeadlineManager deadlines = new DeadlineManager(() -> "wifi");
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        apiService = new Retrofit.Builder()
+                .baseUrl(server.url("/api/"))
+                .addConverterFactory(GsonConverterFactory.create())
+                .build()
+                .create(ApiService.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void identicalCallsShareOneResult() {
+        SingleFlight flights = new SingleFlight();
+        String key = SingleFlight.key("login", new LoginRequest("13800000000", "secret"));
+        // 键中只有请求体的摘要，不含明文密码
+        assertFalse(key.contains("secret"));
+        List<String> results = new ArrayList<>();
+
+        NetworkCallback<String> shared = flights.join(key, recording(results, "第一次"));
+        assertNotNull(shared);
+        // 连点：相同的请求还在进行，不再发送
+        assertNull(flights.join(key, recording(results, "第二次")));
+        // 请求体不同的请求不受影响
+        assertNotNull(flights.join(SingleFlight.key("login", new LoginRequest("13800000000", "other")),
+                recording(results, "其他")));
+
+        shared.onSuccess("token");
+        assertEquals(2, results.size());
+        assertEquals("第一次:token", results.get(0));
+        assertEquals("第二次:token", results.get(1));
+        // 请求结束后相同的请求可以再次发送
+        assertNotNull(flights.join(key, recording(results, "第三次")));
+    }
+
+    @Test
+    public void repeatedQuestionSharesOneAnswer() throws Exception {
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "application/x-ndjson")
+                .setChunkedBody("{\"type\":\"answer\",\"text\":\"八点开门。\"}\n"
+                        + "{\"type\":\"done\",\"usage\":{\"total_tokens\":1}}\n", 5)
+                .setBodyDelay(200, TimeUnit.MILLISECONDS));
+        SingleFlight flights = new SingleFlight();
+        ChatConversation.Turn turn = new ChatConversation().newTurn("图书馆几点开门", new ArrayList<>());
+        String key = SingleFlight.key("chat/stream", turn.getRequest());
+
+        RecordingChat first = new RecordingChat();
+        RecordingChat second = new RecordingChat();
+        ChatStreamHandle firstHandle = flights.joinChat(key, first, Runnable::run, this::newSession);
+        ChatStreamHandle secondHandle = flights.joinChat(key, second, Runnable::run, fanout -> {
+            throw new AssertionError("相同的问题不应再次发送");
+        });
+        assertEquals(firstHandle.getRequestId(), secondHandle.getRequestId());
+
+        assertTrue(first.finished.await(10, TimeUnit.SECONDS));
+        assertTrue(second.finished.await(10, TimeUnit.SECONDS));
+        assertEquals("八点开门。", first.shown.toString());
+        assertEquals("八点开门。", second.shown.toString());
+        assertEquals(1, server.getRequestCount());
+
+        // 回答结束后再问同一个问题会发送新请求
+        server.enqueue(new MockResponse().setHeader("Content-Type", "application/x-ndjson")
+                .setBody("{\"type\":\"done\",\"usage\":{\"total_tokens\":1}}\n"));
+        RecordingChat third = new RecordingChat();
+        ChatStreamHandle thirdHandle = flights.joinChat(key, third, Runnable::run, this::newSession);
+        assertTrue(third.finished.await(10, TimeUnit.SECONDS));
+        assertNotEquals(firstHandle.getRequestId(), thirdHandle.getRequestId());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void questionAfterAllCallersCancelledStartsNewAnswer() throws Exception {
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "application/x-ndjson")
+                .setBody("{\"type\":\"done\",\"usage\":{\"total_tokens\":1}}\n")
+                .setHeadersDelay(2, TimeUnit.SECONDS));
+        server.enqueue(new MockResponse().setHeader("Content-Type", "application/x-ndjson")
+                .setBody("{\"type\":\"done\",\"usage\":{\"total_tokens\":1}}\n"));
+        SingleFlight flights = new SingleFlight();
+        ChatConversation.Turn turn = new ChatConversation().newTurn("图书馆几点开门", new ArrayList<>());
+        String key = SingleFlight.key("chat/stream", turn.getRequest());
+
+        ChatStreamHandle firstHandle = flights.joinChat(key, new RecordingChat(), Runnable::run, this::newSession);
+        // 唯一的调用方取消后，底层请求随之取消，不能再被加入
+        firstHandle.cancel();
+
+        RecordingChat second = new RecordingChat();
+        ChatStreamHandle secondHandle = flights.joinChat(key, second, Runnable::run, this::newSession);
+        assertNotEquals(firstHandle.getRequestId(), secondHandle.getRequestId());
+        assertTrue(second.finished.await(10, TimeUnit.SECONDS));
+    }
+
+    private ChatStreamSession newSession(ChatStreamCallback fanout) {
+        return new ChatStreamSession(apiService, "Bearer token",
+                new ChatConversation().newTurn("图书馆几点开门", new ArrayList<>()),
+                fanout, Runnable::run, Runnable::run, new RetryBudget(), deadlines, () -> { });
+    }
+
+    private static NetworkCallback<String> recording(List<String> results, String name) {
+        return new NetworkCallback<String>() {
+            @Override
+            public void onSuccess(String response) {
+                results.add(name + ":" + response);
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                results.add(name + ":" + errorMessage);
+            }
+        };
+    }
+
+    private static class RecordingChat implements ChatStreamCallback {
+        final StringBuilder shown = new StringBuilder();
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        @Override
+        public void onSuccess(String response) {
+            shown.append(response);
+        }
+
+        @Override
+        public void onComplete() {
+            finished.countDown();
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            finished.countDown();
+        }
+    }
+}
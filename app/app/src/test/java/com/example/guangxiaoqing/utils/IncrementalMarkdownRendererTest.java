@@ -0,0 +1,91 @@
+package com.example.guangxiaoqing.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 稳定边界测试：按流式到达的顺序逐字符计算边界，
+ * 每个边界两侧分别分词的结果拼接起来必须与整体分词一致
+ */
+public class IncrementalMarkdownRendererTest {
+
+    @Test
+    public void bareHeadingMarkerSpansBlankLines() {
+        // 标题的\s+跨过空行，foo是一级标题的内容
+        String text = "#\n\n\nfoo\n";
+        assertEquals(0, IncrementalMarkdownRenderer.stableBoundary("#\n\n\n", 0));
+        assertEquals(text.length(), IncrementalMarkdownRenderer.stableBoundary(text, 0));
+        assertStreamingMatchesWhole(text);
+    }
+
+    @Test
+    public void boundariesMatchWholeTextTokenizing() {
+        String[] samples = {
+                "#\n \t\n\nfoo\nbar\n",
+                "######\n\n内容\n正文\n",
+                "#######\n不是标题\n",
+                "#\n#\nfoo\n",
+                "# 标题\n**粗\n体**\n正文\n",
+                "$x\ny$\n# 标题\n正文\n",
+                "<think>\n想一想\n</think>\n## 标题\n正文 $a^2$ 结尾\n",
+                "未闭合 ** 和 $ 之后\n# 标题\n",
+        };
+        for (String sample : samples) {
+            assertStreamingMatchesWhole(sample);
+        }
+    }
+
+    @Test
+    public void randomMarkdownMatchesWholeTextTokenizing() {
+        String[] pieces = {"#", "##", " ", "\t", "\n", "\n\n", "$", "**", "<think>", "</think>", "文字", "a"};
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder text = new StringBuilder();
+            int count = 5 + random.nextInt(30);
+            for (int j = 0; j < count; j++) {
+                text.append(pieces[random.nextInt(pieces.length)]);
+            }
+            assertStreamingMatchesWhole(text.toString());
+        }
+    }
+
+    /**
+     * 模拟逐字符到达，用上一次的边界继续计算，每个边界都必须是整体文本的合法分割点
+     */
+    private static void assertStreamingMatchesWhole(String text) {
+        MarkdownTokenizer.Document whole = MarkdownTokenizer.tokenize(text);
+        int from = 0;
+        for (int end = 1; end <= text.length(); end++) {
+            int boundary = IncrementalMarkdownRenderer.stableBoundary(text.substring(0, end), from);
+            if (boundary != from) {
+                MarkdownTokenizer.Document prefix = MarkdownTokenizer.tokenize(text.substring(0, boundary));
+                MarkdownTokenizer.Document suffix = MarkdownTokenizer.tokenize(text.substring(boundary));
+                String message = "在" + boundary + "处分割: " + text.replace("\n", "\\n");
+                assertEquals(message, whole.getText(), prefix.getText() + suffix.getText());
+                List<String> split = describe(prefix, 0, 0);
+                split.addAll(describe(suffix, prefix.getText().length(), boundary));
+                assertEquals(message, describe(whole, 0, 0), split);
+            }
+            from = boundary;
+        }
+    }
+
+    /**
+     * 把节点按偏移展开成可比较的列表
+     */
+    private static List<String> describe(MarkdownTokenizer.Document document, int offset, int sourceOffset) {
+        List<String> result = new ArrayList<>();
+        for (MarkdownTokenizer.Token token : document.getTokens()) {
+            result.add(token.getType() + " " + token.getLevel()
+                    + " " + (token.getStart() + offset) + "-" + (token.getEnd() + offset)
+                    + " " + (token.getSourceStart() + sourceOffset) + "-" + (token.getSourceEnd() + sourceOffset)
+                    + " " + token.getMathContent());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.guangxiaoqing.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class MarkdownBlockSplitterTest {
+
+    @Test
+    public void plainTextIsOneUntouchedBlock() {
+        String text = "\n# 标题\n没有公式，单个$不闭合\n";
+        List<MarkdownBlockSplitter.Block> blocks = MarkdownBlockSplitter.split(text);
+
+        assertEquals(1, blocks.size());
+        assertBlock(blocks.get(0), MarkdownBlockSplitter.Type.TEXT, text);
+    }
+
+    @Test
+    public void splitsMathAndCode() {
+        String text = "面积是$\\pi r^2$，公式：\n$$S = \\pi r^2$$\n代码：\n```java\nint a = 1;\n```\n结束";
+        List<MarkdownBlockSplitter.Block> blocks = MarkdownBlockSplitter.split(text);
+
+        assertEquals(7, blocks.size());
+        assertBlock(blocks.get(0), MarkdownBlockSplitter.Type.TEXT, "面积是");
+        assertBlock(blocks.get(1), MarkdownBlockSplitter.Type.INLINE_MATH, "\\pi r^2");
+        assertBlock(blocks.get(2), MarkdownBlockSplitter.Type.TEXT, "，公式：");
+        assertBlock(blocks.get(3), MarkdownBlockSplitter.Type.DISPLAY_MATH, "S = \\pi r^2");
+        assertBlock(blocks.get(4), MarkdownBlockSplitter.Type.TEXT, "代码：");
+        assertBlock(blocks.get(5), MarkdownBlockSplitter.Type.CODE, "int a = 1;");
+        assertBlock(blocks.get(6), MarkdownBlockSplitter.Type.TEXT, "结束");
+    }
+
+    @Test
+    public void markersInsideCodeAreNotParsed() {
+        // 流式回答中代码块还没有结束时到文本末尾都是代码
+        List<MarkdownBlockSplitter.Block> blocks = MarkdownBlockSplitter.split("```\necho $HOME $PATH");
+
+        assertEquals(1, blocks.size());
+        assertBlock(blocks.get(0), MarkdownBlockSplitter.Type.CODE, "echo $HOME $PATH");
+    }
+
+    @Test
+    public void inlineMathDoesNotSpanLines() {
+        List<MarkdownBlockSplitter.Block> blocks = MarkdownBlockSplitter.split("价格$5\n还有$x$");
+
+        assertEquals(2, blocks.size());
+        assertBlock(blocks.get(0), MarkdownBlockSplitter.Type.TEXT, "价格$5\n还有");
+        assertBlock(blocks.get(1), MarkdownBlockSplitter.Type.INLINE_MATH, "x");
+    }
+
+    @Test
+    public void streamingBoundariesMatchWholeSplit() {
+        String[] samples = {
+                "面积是$\\pi r^2$，公式：\n$$S = \\pi r^2$$\n代码：\n```java\nint a = 1;\n```\n结束",
+                "价格$5\n还有$x$和$$\n多行\n$$之后",
+                "```\n未结束的代码 $x$",
+                "$$$$空的$$$$与$a$$b$$",
+                "``不是代码\n``\n```\n",
+        };
+        for (String sample : samples) {
+            assertStreamingMatchesWhole(sample);
+        }
+    }
+
+    @Test
+    public void randomStreamingBoundariesMatchWholeSplit() {
+        String[] pieces = {"$", "$$", "`", "```", "\n", "a", "文字", " "};
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder text = new StringBuilder();
+            int count = 5 + random.nextInt(30);
+            for (int j = 0; j < count; j++) {
+                text.append(pieces[random.nextInt(pieces.length)]);
+            }
+            assertStreamingMatchesWhole(text.toString());
+        }
+    }
+
+    /**
+     * 模拟逐字符到达，用上一次的边界继续计算：已确定的分段加上边界之后的分段必须与整体分段一致
+     */
+    private static void assertStreamingMatchesWhole(String text) {
+        List<MarkdownBlockSplitter.Block> stable = new ArrayList<>();
+        int boundary = 0;
+        for (int end = 1; end <= text.length(); end++) {
+            String prefix = text.substring(0, end);
+            boundary = MarkdownBlockSplitter.stableBoundary(prefix, boundary, stable);
+            List<String> streamed = describe(stable);
+            streamed.addAll(describe(MarkdownBlockSplitter.split(prefix, boundary)));
+            assertEquals(prefix.replace("\n", "\\n"), describe(MarkdownBlockSplitter.split(prefix)), streamed);
+        }
+    }
+
+    private static List<String> describe(List<MarkdownBlockSplitter.Block> blocks) {
+        List<String> result = new ArrayList<>();
+        for (MarkdownBlockSplitter.Block block : blocks) {
+            result.add(block.getType() + ":" + block.getContent());
+        }
+        return result;
+    }
+
+    private static void assertBlock(MarkdownBlockSplitter.Block block, MarkdownBlockSplitter.Type type, String content) {
+        assertEquals(type, block.getType());
+        assertEquals(content, block.getContent());
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.guangxiaoqing.utils;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MarkdownTokenizerTest {
+
+    @Test
+    public void headingIsLocatedOnItsOwnLine() {
+        // 正文中先出现与标题相同的文字，之前用indexOf找回标题时会把样式设置到第一行
+        MarkdownTokenizer.Document document = MarkdownTokenizer.tokenize("介绍\n# 介绍\n正文");
+
+        assertEquals("介绍\n介绍\n正文", document.getText());
+        List<MarkdownTokenizer.Token> tokens = document.getTokens();
+        assertEquals(1, tokens.size());
+        MarkdownTokenizer.Token heading = tokens.get(0);
+        assertEquals(MarkdownTokenizer.Type.HEADING, heading.getType());
+        assertEquals(1, heading.getLevel());
+        assertEquals(3, heading.getStart());
+        assertEquals(5, heading.getEnd());
+        assertEquals(3, heading.getSourceStart());
+        assertEquals(7, heading.getSourceEnd());
+    }
+
+    @Test
+    public void inlineMarkersInsideHeading() {
+        MarkdownTokenizer.Document document = MarkdownTokenizer.tokenize("## 标题 **粗体** 结尾\n下一行");
+
+        assertEquals("标题 粗体 结尾\n下一行", document.getText());
+        MarkdownTokenizer.Token bold = find(document, MarkdownTokenizer.Type.BOLD);
+        assertEquals("粗体", document.getText().substring(bold.getStart(), bold.getEnd()));
+        MarkdownTokenizer.Token heading = find(document, MarkdownTokenizer.Type.HEADING);
+        assertEquals(2, heading.getLevel());
+        assertEquals("标题 粗体 结尾", document.getText().substring(heading.getStart(), heading.getEnd()));
+    }
+
+    @Test
+    public void thinkAndMath() {
+        MarkdownTokenizer.Document document = MarkdownTokenizer.tokenize("<think>\n想一想</think>答案$a+b$好");
+
+        assertEquals("想一想答案a+b好", document.getText());
+        MarkdownTokenizer.Token think = find(document, MarkdownTokenizer.Type.THINK);
+        assertEquals("想一想", document.getText().substring(think.getStart(), think.getEnd()));
+        MarkdownTokenizer.Token math = find(document, MarkdownTokenizer.Type.MATH);
+        assertEquals("a+b", math.getMathContent());
+        assertEquals("a+b", document.getText().substring(math.getStart(), math.getEnd()));
+    }
+
+    @Test
+    public void unclosedMarkersStayAsText() {
+        String text = "未闭合 $ 和 ** 和 <think>";
+        MarkdownTokenizer.Document document = MarkdownTokenizer.tokenize(text);
+
+        assertEquals(text, document.getText());
+        assertTrue(document.getTokens().isEmpty());
+    }
+
+    @Test
+    public void tokenizingIsLinearInTextLength() {
+        // 大量标题：之前每个标题都要用indexOf从头查找
+        StringBuilder headings = new StringBuilder();
+        // 大量没有闭合的标记：每个标记都查找闭合位置时是平方级
+        StringBuilder unclosed = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            headings.append("## 第").append(i).append("条 **规定**\n正文 $x_").append(i).append("$\n");
+            unclosed.append("$ ** <think> 文字\n");
+        }
+        assertLinear("标题", headings.toString());
+        assertLinear("未闭合标记", unclosed.toString());
+    }
+
+    @Test
+    public void tokenizingRagDocsIsLinear() throws Exception {
+        File docs = findDocs();
+        Assume.assumeTrue("rag/docs not found", docs != null);
+        // 学生手册有一千多个标题，网站数据有大量普通段落
+        String handbook = new String(Files.readAllBytes(new File(docs, "广东轻工职业技术大学学生手册.md").toPath()),
+                StandardCharsets.UTF_8);
+        String website = new String(Files.readAllBytes(new File(docs, "学校网站数据.md").toPath()),
+                StandardCharsets.UTF_8);
+        assertLinear("rag/docs", handbook + website + handbook + website);
+    }
+
+    /**
+     * 在本机JVM上计时：分别对文本的前八分之一和全文分词，线性实现的耗时约为8倍，平方级的实现约为64倍；
+     * 先预热再交替计时，各取最短的耗时，减少JIT编译和GC的干扰
+     */
+    private static void assertLinear(String name, String text) {
+        String part = text.substring(0, text.length() / 8);
+        long warmupEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+        while (System.nanoTime() < warmupEnd) {
+            MarkdownTokenizer.tokenize(part);
+            MarkdownTokenizer.tokenize(text);
+        }
+        long partNs = Long.MAX_VALUE;
+        long wholeNs = Long.MAX_VALUE;
+        for (int i = 0; i < 15; i++) {
+            long start = System.nanoTime();
+            MarkdownTokenizer.tokenize(part);
+            partNs = Math.min(partNs, System.nanoTime() - start);
+            start = System.nanoTime();
+            MarkdownTokenizer.tokenize(text);
+            wholeNs = Math.min(wholeNs, System.nanoTime() - start);
+        }
+        System.out.println("Markdown分词(" + name + "): " + part.length() + "字符 " + partNs / 1000 + "us, "
+                + text.length() + "字符 " + wholeNs / 1000 + "us");
+        // 测试机器上的计时波动可能有数倍，阈值取线性和平方级之间
+        assertTrue(name + ": " + partNs + "ns -> " + wholeNs + "ns", wholeNs < 32 * partNs);
+    }
+
+    private static MarkdownTokenizer.Token find(MarkdownTokenizer.Document document, MarkdownTokenizer.Type type) {
+        for (MarkdownTokenizer.Token token : document.getTokens()) {
+            if (token.getType() == type) {
+                return token;
+            }
+        }
+        throw new AssertionError("没有" + type + "节点");
+    }
+
+    private static File findDocs() {
+        File dir = new File(System.getProperty("user.dir")).getAbsoluteFile();
+        for (; dir != null; dir = dir.getParentFile()) {
+            File docs = new File(dir, "rag/docs");
+            if (new File(docs, "广东轻工职业技术大学学生手册.md").isFile()) {
+                return docs;
+            }
+        }
+        return null;
+    }
+}
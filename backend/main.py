@@ -1,4 +1,4 @@
-from fastapi import FastAPI, Depends, HTTPException, status, BackgroundTasks
+from fastapi import FastAPI, Depends, HTTPException, status, BackgroundTasks, Header
 from fastapi.middleware.cors import CORSMiddleware
 from fastapi.security import HTTPBearer, HTTPAuthorizationCredentials
 from fastapi.responses import StreamingResponse
@@ -66,6 +66,10 @@ bearer_scheme = HTTPBearer()
 SPUG_API_KEY = "LgM8MDJOrdnw"
 SPUG_SEND_URL = f"https://push.spug.cc/send/{SPUG_API_KEY}"
 
+# 短信请求的幂等键：客户端重试同一次发送时返回第一次的结果，不重复发送
+SMS_IDEMPOTENCY_TTL = timedelta(minutes=10)
+_sms_responses: dict = {}
+
 
 # ============================================================
 # 工具函数
@@ -306,13 +310,19 @@ async def stream_rag(req: ChatRequest) -> StreamingResponse:
 # ============================================================
 
 @app.post("/sms/send", response_model=SMSResponse, status_code=status.HTTP_202_ACCEPTED)
-def send_sms(req: SendSMSRequest, background_tasks: BackgroundTasks, db: Session = Depends(get_db)) -> SMSResponse:
+def send_sms(
+    req: SendSMSRequest,
+    background_tasks: BackgroundTasks,
+    db: Session = Depends(get_db),
+    idempotency_key: Optional[str] = Header(None, alias="Idempotency-Key")
+) -> SMSResponse:
     """发送短信验证码
 
     Args:
         req: 发送短信请求
         background_tasks: 后台任务
         db: 数据库会话
+        idempotency_key: 客户端为每次发送生成的幂等键，重试时保持不变
 
     Returns:
         SMSResponse: 包含发送状态和剩余次数的响应
@@ -320,6 +330,15 @@ def send_sms(req: SendSMSRequest, background_tasks: BackgroundTasks, db: Session
     Raises:
         HTTPException: 如果手机号不符合要求或超过发送限制
     """
+    # 同一次发送的重试直接返回第一次的结果
+    now = datetime.utcnow()
+    for key, (expires_at, _) in list(_sms_responses.items()):
+        if expires_at <= now:
+            _sms_responses.pop(key, None)
+    cache_key = (req.phone, idempotency_key) if idempotency_key else None
+    if cache_key in _sms_responses:
+        return _sms_responses[cache_key][1]
+
     # 检查手机号在注册/重置场景下的合法性
     user = get_user_by_phone(db, req.phone)
     if req.type == "registration" and user:
@@ -332,7 +351,9 @@ def send_sms(req: SendSMSRequest, background_tasks: BackgroundTasks, db: Session
     if monthly_sms_count >= 3:  # 每月最多发送3次
         raise HTTPException(
             status_code=status.HTTP_429_TOO_MANY_REQUESTS,
-            detail=f"该手机号在过去30天内已发送{monthly_sms_count}次验证码，超过限制"
+            detail=f"该手机号在过去30天内已发送{monthly_sms_count}次验证码，超过限制",
+            # 限制按30天计算，客户端不应自动重试
+            headers={"Retry-After": str(30 * 24 * 3600)}
         )
 
     # 生成一个 6 位数字验证码
@@ -347,10 +368,13 @@ def send_sms(req: SendSMSRequest, background_tasks: BackgroundTasks, db: Session
     background_tasks.add_task(_send_sms_via_third_party, req.phone, code)
 
     # 返回给前端发送成功信息和剩余可发送次数
-    return SMSResponse(
+    response = SMSResponse(
         message="验证码发送成功",
         remaining=3 - monthly_sms_count - 1
     )
+    if cache_key:
+        _sms_responses[cache_key] = (now + SMS_IDEMPOTENCY_TTL, response)
+    return response
 
 
 # ============================================================